@@ -18,6 +18,13 @@
 
 package vlc.util;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Blocking 'First In First Out' (FIFO) queue.
  * <P>
@@ -25,6 +32,52 @@ package vlc.util;
  * Based on the simple Queue but can be used concurrently by seperate
  * threads. If there are not elements in the queue, getNext() will block until
  * it is not empty.
+ * <P>
+ *
+ * By default the queue is unbounded. A queue may instead be created with a
+ * fixed capacity and an overflow policy that says what add() does when the
+ * queue is full: block the producer until there is room, silently drop the
+ * new item, drop the oldest item to make room, or reject the item with an
+ * exception. Whatever the policy, offer() never waits and the timed
+ * offer() waits only as long as it is told to.
+ * <P>
+ *
+ * Waiting is done on java.util.concurrent.locks conditions rather than the
+ * object monitor, with separate conditions for consumers waiting for items
+ * and producers waiting for room. Each new item wakes at most one waiting
+ * consumer. Threads never block inside a synchronized block, so the queue
+ * can be used from virtual threads without pinning their carrier.
+ * <P>
+ *
+ * To shut a queue down, call close(). Producers can no longer add to it,
+ * but consumers carry on receiving whatever is left in the queue. Once it
+ * is empty, every consumer returns from getNext() with null, including the
+ * ones already waiting. awaitEmpty() lets a thread wait for the consumers
+ * to drain the queue.
+ * <P>
+ *
+ * How a consumer waits for an empty queue is decided by its
+ * {@link WaitStrategy}. By default consumers sleep on the queue straight
+ * away. A spinning strategy makes them spin or yield outside the lock
+ * first, watching the number of queued items, so that latency sensitive
+ * consumers can avoid the cost of being woken up.
+ * <P>
+ *
+ * {@link QueueListener}s may be registered to hear about items being
+ * added and removed and about the queue closing, so that code such as a
+ * reactive adapter can react to the queue without a thread waiting on it.
+ * <P>
+ *
+ * For monitoring, a {@link QueueStats} may be attached with
+ * setStatistics(). It then records the depth, throughput, how long
+ * consumers wait in getNext() and how long items spend in the queue. With
+ * no statistics attached nothing is measured.
+ * <P>
+ *
+ * For bursts that must not be dropped but may not fit on the heap, the
+ * queue can be created unbounded with a memory limit and a spill
+ * directory. Items past the limit are written to disk by the underlying
+ * {@link Queue} and read back in order, so consumers see no difference.
  *
  * @see vlc.util.Queue
  * @version 1.0
@@ -33,25 +86,306 @@ package vlc.util;
  */
 public class BlockingQueue extends Queue
 {
-    /** A flag to indicate the class is currently undergoing a purge */
-    private boolean m_purging = false;
+    /** Overflow policy: add() blocks until there is room */
+    public static final int OVERFLOW_BLOCK = 0;
+
+    /** Overflow policy: add() silently discards the new item */
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+
+    /** Overflow policy: add() discards the item at the front of the queue */
+    public static final int OVERFLOW_DROP_OLDEST = 2;
+
+    /** Overflow policy: add() throws an IllegalStateException */
+    public static final int OVERFLOW_REJECT = 3;
+
+    /**
+     * Incremented for every purge. A consumer leaves with null when this
+     * changes while it is waiting, however late it gets to run again.
+     */
+    private volatile int m_purgeCount = 0;
+
+    /** Set once the queue has been closed */
+    private volatile boolean m_closed = false;
+
+    /**
+     * The number of items in the queue as of the last change, for consumers
+     * spinning outside the lock.
+     */
+    private volatile int m_available = 0;
+
+    /** An empty list of listeners */
+    private static final QueueListener[] NO_LISTENERS = new QueueListener[0];
+
+    /** How consumers wait for an empty queue */
+    private volatile WaitStrategy m_waitStrategy = WaitStrategy.BLOCKING;
+
+    /** The registered listeners. Replaced, never changed in place */
+    private volatile QueueListener[] m_listeners = NO_LISTENERS;
+
+    /** Statistics being gathered for the queue. Null if none */
+    private volatile QueueStats m_stats;
+
+    /** The number of consumers currently waiting for items */
+    private int m_waiting = 0;
+
+    /** The number of producers currently waiting for room */
+    private int m_waitingProducers = 0;
+
+    /** Lock guarding all access to the queue */
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /** Condition consumers wait on when the queue is empty */
+    private final Condition m_notEmpty = m_lock.newCondition();
+
+    /** Condition producers wait on when the queue is full */
+    private final Condition m_notFull = m_lock.newCondition();
+
+    /** Condition signalled whenever the queue becomes empty */
+    private final Condition m_empty = m_lock.newCondition();
+
+    /** The maximum number of items the queue may hold */
+    private final int m_capacity;
+
+    /** What to do when adding to a full queue */
+    private final int m_overflowPolicy;
 
     /**
      * Constructor. Create a simple queue.
      */
     public BlockingQueue()
     {
+        m_capacity = Integer.MAX_VALUE;
+        m_overflowPolicy = OVERFLOW_BLOCK;
     }
 
     /**
-     * Add an object to the end of the queue.
+     * Constructor. Create a queue that holds no more than the given number
+     * of items and blocks producers when it is full.
+     *
+     * @param capacity The maximum number of items in the queue
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public BlockingQueue(int capacity)
+    {
+        this(capacity, OVERFLOW_BLOCK);
+    }
+
+    /**
+     * Constructor. Create a queue that holds no more than the given number
+     * of items and deals with extra items according to the given policy.
+     *
+     * @param capacity The maximum number of items in the queue
+     * @param overflowPolicy One of the OVERFLOW_ constants
+     * @throws IllegalArgumentException if the capacity is not positive or
+     *    the policy is not known
+     */
+    public BlockingQueue(int capacity, int overflowPolicy)
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " +
+                                               capacity);
+
+        if(overflowPolicy < OVERFLOW_BLOCK || overflowPolicy > OVERFLOW_REJECT)
+            throw new IllegalArgumentException("Unknown overflow policy: " +
+                                               overflowPolicy);
+
+        m_capacity = capacity;
+        m_overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Constructor. Create an unbounded queue that holds no more than the
+     * given number of items in memory, and spills the rest to files in the
+     * given directory. Items must be serializable.
+     *
+     * @param memoryLimit The maximum number of items to hold in memory
+     * @param spillDir The directory to write the spill files to
+     * @throws IllegalArgumentException if the limit is not positive or the
+     *    directory does not exist
+     */
+    public BlockingQueue(int memoryLimit, File spillDir)
+    {
+        super(memoryLimit, spillDir);
+
+        m_capacity = Integer.MAX_VALUE;
+        m_overflowPolicy = OVERFLOW_BLOCK;
+    }
+
+    /**
+     * Add an object to the end of the queue. If the queue is full, the
+     * overflow policy decides what happens.
      *
      * @param o Object to add.
+     * @throws IllegalStateException if the queue is full and the policy is
+     *    OVERFLOW_REJECT, or the queue has been closed
      */
-    public synchronized void add(Object o)
+    public void add(Object o)
     {
-        super.add(o);
-        notifyAll();
+        m_lock.lock();
+        try
+        {
+            if(insert(o))
+                wakeConsumers(1);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Add all of the objects in the array to the end of the queue. The
+     * whole batch is inserted in one go and waiting consumers are woken
+     * once, with no more of them woken than there are new objects. If the
+     * batch does not fit, the overflow policy is applied to each object
+     * that does not.
+     *
+     * @param items The objects to add
+     * @throws IllegalStateException if the queue is full and the policy is
+     *    OVERFLOW_REJECT, or the queue has been closed
+     */
+    public void addAll(Object[] items)
+    {
+        m_lock.lock();
+        try
+        {
+            checkOpen();
+
+            if(super.size() + items.length <= m_capacity)
+            {
+                super.addAll(items);
+                wakeConsumers(items.length);
+            }
+            else
+            {
+                int pending = 0;
+                try
+                {
+                    for(int i = 0; i < items.length; i++)
+                        pending = insertFromBatch(items[i], pending);
+                }
+                finally
+                {
+                    wakeConsumers(pending);
+                }
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Add all of the objects in the collection to the end of the queue. The
+     * whole batch is inserted in one go and waiting consumers are woken
+     * once, with no more of them woken than there are new objects. If the
+     * batch does not fit, the overflow policy is applied to each object
+     * that does not.
+     *
+     * @param items The objects to add
+     * @throws IllegalStateException if the queue is full and the policy is
+     *    OVERFLOW_REJECT, or the queue has been closed
+     */
+    public void addAll(Collection items)
+    {
+        m_lock.lock();
+        try
+        {
+            checkOpen();
+
+            if(super.size() + items.size() <= m_capacity)
+            {
+                super.addAll(items);
+                wakeConsumers(items.size());
+            }
+            else
+            {
+                int pending = 0;
+                try
+                {
+                    Iterator itr = items.iterator();
+                    while(itr.hasNext())
+                        pending = insertFromBatch(itr.next(), pending);
+                }
+                finally
+                {
+                    wakeConsumers(pending);
+                }
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Add an object to the end of the queue if there is room for it right
+     * now. The overflow policy is not used, except that a queue that drops
+     * its oldest items will still do so to make room.
+     *
+     * @param o Object to add
+     * @return true if the object was added, false if the queue was full
+     *    or has been closed
+     */
+    public boolean offer(Object o)
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_closed)
+                return false;
+
+            if(super.size() >= m_capacity)
+            {
+                if(m_overflowPolicy != OVERFLOW_DROP_OLDEST)
+                    return false;
+
+                super.getNext();
+                fireItemsDiscarded(1);
+            }
+
+            super.add(o);
+            wakeConsumers(1);
+
+            return true;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Add an object to the end of the queue, waiting no longer than the
+     * given time for room to become available. The overflow policy is not
+     * used.
+     *
+     * @param o Object to add
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return true if the object was added, false if the queue stayed full
+     *    or was closed, or the thread was interrupted while waiting. The
+     *    interrupt status is left set
+     */
+    public boolean offer(Object o, long timeout, TimeUnit unit)
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_closed || !waitForSpace(Math.max(0, unit.toNanos(timeout))))
+                return false;
+
+            super.add(o);
+            wakeConsumers(1);
+
+            return true;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
@@ -59,29 +393,147 @@ public class BlockingQueue extends Queue
      * from the queue. Under normal circumstances this method will always
      * return an object, blocking if it has to until something is available.
      * However, sometimes the queue needs to close so we unblock the queue
-     * are return null instead.
+     * are return null instead. That happens when the queue is purged, or
+     * when it has been closed and there is nothing left in it.
      *
      * @return element at the front of the queue, will block until
      * queue is not empty.
      */
     public Object getNext()
     {
-        while(!m_purging && !hasNext())
+        m_lock.lock();
+        try
         {
-            try
-            {
-                synchronized(this)
-                {
-                    wait();
-                }
-            }
-            catch(InterruptedException e)
-            {
-            }
+            waitForItems(-1);
+
+            Object o = super.getNext();
+            if(o != null)
+                itemsRemoved(1);
+
+            return o;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the next element from the front of the queue, and remove it
+     * from the queue, waiting no longer than the given time for one to
+     * become available. The wait is measured against a fixed deadline, so
+     * spurious wake-ups do not extend it.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return element at the front of the queue, or null if the timeout
+     *    expired, the queue was purged or the thread was interrupted first.
+     *    The interrupt status is left set
+     */
+    public Object getNext(long timeout, TimeUnit unit)
+    {
+        m_lock.lock();
+        try
+        {
+            waitForItems(Math.max(0, unit.toNanos(timeout)));
+
+            Object o = super.getNext();
+            if(o != null)
+                itemsRemoved(1);
+
+            return o;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the next element from the front of the queue and remove it,
+     * without waiting.
+     *
+     * @return element at the front of the queue, or null if empty
+     */
+    public Object poll()
+    {
+        m_lock.lock();
+        try
+        {
+            Object o = super.getNext();
+            if(o != null)
+                itemsRemoved(1);
+
+            return o;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a batch of elements from the front of the queue and add them to
+     * the given collection. Blocks until at least one element is available,
+     * then moves as many as are present, up to the given maximum, without
+     * releasing the queue in between. If the queue is purged while waiting
+     * this returns 0.
+     *
+     * @param max The maximum number of elements to remove
+     * @param sink The collection to add the elements to
+     * @return The number of elements removed
+     */
+    public int getNext(int max, Collection sink)
+    {
+        if(max <= 0)
+            return 0;
+
+        m_lock.lock();
+        try
+        {
+            waitForItems(-1);
+
+            int num = super.getNext(max, sink);
+            itemsRemoved(num);
+
+            return num;
+        }
+        finally
+        {
+            m_lock.unlock();
         }
+    }
 
-        Object o = super.getNext();
-        return o;
+    /**
+     * Remove a batch of elements from the front of the queue and copy them
+     * into the given array starting at index 0. Blocks until at least one
+     * element is available, then moves as many as are present, up to the
+     * given maximum and the length of the array, without releasing the queue
+     * in between. If the queue is purged while waiting this returns 0.
+     *
+     * @param max The maximum number of elements to remove
+     * @param items The array to copy the elements to
+     * @return The number of elements removed
+     */
+    public int getNext(int max, Object[] items)
+    {
+        if(max <= 0 || items.length == 0)
+            return 0;
+
+        m_lock.lock();
+        try
+        {
+            waitForItems(-1);
+
+            int num = super.getNext(max, items);
+            itemsRemoved(num);
+
+            return num;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
@@ -89,9 +541,17 @@ public class BlockingQueue extends Queue
      *
      * @return element at the front of the queue, null if empty.
      */
-    public synchronized Object peekNext()
+    public Object peekNext()
     {
-        return super.peekNext();
+        m_lock.lock();
+        try
+        {
+            return super.peekNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
@@ -99,9 +559,17 @@ public class BlockingQueue extends Queue
      *
      * @return true if queue has more objects.
      */
-    public synchronized boolean hasNext()
+    public boolean hasNext()
     {
-        return super.hasNext();
+        m_lock.lock();
+        try
+        {
+            return super.hasNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
@@ -109,30 +577,641 @@ public class BlockingQueue extends Queue
      *
      * @return size of queue.
      */
-    public synchronized int size()
+    public int size()
     {
-        return super.size();
+        m_lock.lock();
+        try
+        {
+            return super.size();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
      * Remove all elements from queue. Also unblock those who are waiting for
      * items in the queue. They leave the getNext() method with null.
      */
-    public synchronized void purge()
+    public void purge()
     {
-        super.clear();
-        m_purging = true;
-        notifyAll();
-        m_purging = false;
+        m_lock.lock();
+        try
+        {
+            int num = super.size();
+
+            super.clear();
+            m_available = 0;
+            m_purgeCount++;
+            m_notEmpty.signalAll();
+            m_notFull.signalAll();
+            m_empty.signalAll();
 
+            if(num > 0)
+                fireItemsDiscarded(num);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     /**
      * Clear the queue of items. If there are users of the class that are
      * blocked while waiting for elements in the queue, they remain so.
+     * Producers waiting for room are released.
+     */
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            int num = super.size();
+
+            super.clear();
+            m_available = 0;
+            m_notFull.signalAll();
+            m_empty.signalAll();
+
+            if(num > 0)
+                fireItemsDiscarded(num);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Start gathering statistics for the queue in the given object, in
+     * place of any statistics gathered so far. Items already in the queue
+     * are treated as having just been added.
+     *
+     * @param stats The statistics to record into, or null to stop
+     *    gathering statistics
+     */
+    public void setStatistics(QueueStats stats)
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_stats != null)
+                removeQueueListener(m_stats);
+
+            m_stats = stats;
+
+            if(stats != null)
+            {
+                stats.attach(super.size());
+                addQueueListener(stats);
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the statistics being gathered for the queue.
+     *
+     * @return The statistics, or null if none are being gathered
+     */
+    public QueueStats getStatistics()
+    {
+        return m_stats;
+    }
+
+    /**
+     * Get the maximum number of items the queue may hold.
+     *
+     * @return The capacity, or Integer.MAX_VALUE if the queue is unbounded
+     */
+    public int getCapacity()
+    {
+        return m_capacity;
+    }
+
+    /**
+     * Set how consumers wait when they find the queue empty. The new
+     * strategy applies from the next time a consumer starts waiting.
+     *
+     * @param strategy The strategy to use
+     * @throws NullPointerException if the strategy is null
+     */
+    public void setWaitStrategy(WaitStrategy strategy)
+    {
+        if(strategy == null)
+            throw new NullPointerException("Null wait strategy");
+
+        m_waitStrategy = strategy;
+    }
+
+    /**
+     * Get the strategy consumers use to wait when the queue is empty.
+     *
+     * @return The current wait strategy
+     */
+    public WaitStrategy getWaitStrategy()
+    {
+        return m_waitStrategy;
+    }
+
+    /**
+     * Register a listener for changes to the queue. Adding a listener that
+     * is already registered does nothing.
+     *
+     * @param l The listener to add
+     */
+    public void addQueueListener(QueueListener l)
+    {
+        m_lock.lock();
+        try
+        {
+            QueueListener[] old = m_listeners;
+            for(int i = 0; i < old.length; i++)
+            {
+                if(old[i] == l)
+                    return;
+            }
+
+            QueueListener[] list = new QueueListener[old.length + 1];
+            System.arraycopy(old, 0, list, 0, old.length);
+            list[old.length] = l;
+            m_listeners = list;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a listener from the queue. Removing a listener that is not
+     * registered does nothing.
+     *
+     * @param l The listener to remove
+     */
+    public void removeQueueListener(QueueListener l)
+    {
+        m_lock.lock();
+        try
+        {
+            QueueListener[] old = m_listeners;
+            for(int i = 0; i < old.length; i++)
+            {
+                if(old[i] != l)
+                    continue;
+
+                QueueListener[] list = new QueueListener[old.length - 1];
+                System.arraycopy(old, 0, list, 0, i);
+                System.arraycopy(old, i + 1, list, i, old.length - i - 1);
+                m_listeners = list;
+                break;
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Close the queue. Any further attempt to add items fails, and producers
+     * waiting for room are released with an IllegalStateException. Items
+     * already in the queue can still be taken. Once it is empty, getNext()
+     * returns null straight away, and all consumers that are waiting now
+     * are woken to do so. Closing a closed queue does nothing.
+     */
+    public void close()
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_closed)
+                return;
+
+            m_closed = true;
+            m_notEmpty.signalAll();
+            m_notFull.signalAll();
+
+            QueueListener[] list = m_listeners;
+            for(int i = 0; i < list.length; i++)
+                list[i].queueClosed(this);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check to see if the queue has been closed.
+     *
+     * @return true if close() has been called
+     */
+    public boolean isClosed()
+    {
+        m_lock.lock();
+        try
+        {
+            return m_closed;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Block until the queue is empty. Typically used after close() to wait
+     * for the consumers to finish off the remaining items.
+     */
+    public void awaitEmpty()
+    {
+        m_lock.lock();
+        try
+        {
+            while(super.hasNext())
+                m_empty.awaitUninterruptibly();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Block until the queue is empty or the given time has passed. If the
+     * thread is interrupted the wait ends early, with the interrupt status
+     * left set.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return true if the queue is empty, false if the time ran out or the
+     *    thread was interrupted
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit)
+    {
+        long nanos = unit.toNanos(timeout);
+
+        m_lock.lock();
+        try
+        {
+            while(super.hasNext())
+            {
+                if(nanos <= 0)
+                    return false;
+
+                try
+                {
+                    nanos = m_empty.awaitNanos(nanos);
+                }
+                catch(InterruptedException e)
+                {
+                    // Give up as if the time had run out
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Place an object at the end of the queue, applying the overflow policy
+     * if the queue is full. Must be called while holding the lock of this
+     * queue.
+     *
+     * @param o The object to add
+     * @return true if the object was added, false if it was dropped
+     * @throws IllegalStateException if the queue is full and the policy is
+     *    OVERFLOW_REJECT, or the queue has been closed
+     */
+    private boolean insert(Object o)
+    {
+        checkOpen();
+
+        if(super.size() >= m_capacity)
+        {
+            switch(m_overflowPolicy)
+            {
+                case OVERFLOW_BLOCK:
+                    waitForSpace(-1);
+                    checkOpen();
+                    break;
+
+                case OVERFLOW_DROP_NEWEST:
+                    return false;
+
+                case OVERFLOW_DROP_OLDEST:
+                    super.getNext();
+                    fireItemsDiscarded(1);
+                    break;
+
+                case OVERFLOW_REJECT:
+                    throw new IllegalStateException("Queue full");
+            }
+        }
+
+        super.add(o);
+
+        return true;
+    }
+
+    /**
+     * Add a single object from a batch that does not fit in the queue. If
+     * the caller will have to wait for room, the consumers are first told
+     * about the objects added so far so that they can make that room. The
+     * same is done before dropping the oldest object, so that listeners
+     * always hear of an object being added before it is removed. Must be
+     * called while holding the lock of this queue.
+     *
+     * @param o The object to add
+     * @param pending Objects already added that consumers have not been
+     *    told about yet
+     * @return The number of objects consumers have not been told about
+     */
+    private int insertFromBatch(Object o, int pending)
+    {
+        if(pending > 0 &&
+           (m_overflowPolicy == OVERFLOW_BLOCK ||
+            m_overflowPolicy == OVERFLOW_DROP_OLDEST) &&
+           super.size() >= m_capacity)
+        {
+            wakeConsumers(pending);
+            pending = 0;
+        }
+
+        if(insert(o))
+            pending++;
+
+        return pending;
+    }
+
+    /**
+     * Wait until there is room in the queue for another item, the queue is
+     * closed or the given time has passed. Must be called while holding the
+     * lock of this queue. A timed wait also ends if the thread is
+     * interrupted, leaving the interrupt status set, while an untimed one
+     * carries on.
+     *
+     * @param nanos The maximum time to wait in nanoseconds, or a negative
+     *    value to wait for as long as it takes
+     * @return true if there is room in the queue
+     */
+    private boolean waitForSpace(long nanos)
+    {
+        boolean timed = (nanos >= 0);
+
+        while(super.size() >= m_capacity)
+        {
+            if(m_closed)
+                return false;
+
+            if(timed && nanos <= 0)
+                return false;
+
+            m_waitingProducers++;
+            try
+            {
+                if(timed)
+                    nanos = m_notFull.awaitNanos(nanos);
+                else
+                    m_notFull.awaitUninterruptibly();
+            }
+            catch(InterruptedException e)
+            {
+                // Only a timed wait can get here. Give up as if the time
+                // had run out, leaving the interrupt for the caller
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            finally
+            {
+                m_waitingProducers--;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait until there is something in the queue, a purge happens, the queue
+     * is closed or the given time has passed, recording the wait if
+     * statistics are being gathered. Must be called while holding the lock
+     * of this queue, which is released while spinning.
+     *
+     * @param nanos The maximum time to wait in nanoseconds, or a negative
+     *    value to wait for as long as it takes
+     */
+    private void waitForItems(long nanos)
+    {
+        QueueStats stats = m_stats;
+
+        if(stats == null)
+        {
+            awaitItems(nanos);
+        }
+        else if(super.hasNext())
+        {
+            stats.consumerWaited(0);
+        }
+        else
+        {
+            long start = System.nanoTime();
+            awaitItems(nanos);
+            stats.consumerWaited(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Do the waiting for waitForItems(). Must be called while holding the
+     * lock of this queue, which is released while spinning. A timed wait
+     * also ends if the thread is interrupted, leaving the interrupt status
+     * set, while an untimed one carries on.
+     *
+     * @param nanos The maximum time to wait in nanoseconds, or a negative
+     *    value to wait for as long as it takes
+     */
+    private void awaitItems(long nanos)
+    {
+        boolean timed = (nanos >= 0);
+        long deadline = System.nanoTime() + nanos;
+        int purge = m_purgeCount;
+
+        WaitStrategy strategy = m_waitStrategy;
+        boolean spin = (strategy != WaitStrategy.BLOCKING);
+        int tries = 0;
+
+        while(!super.hasNext() && !m_closed && purge == m_purgeCount)
+        {
+            if(timed)
+            {
+                nanos = deadline - System.nanoTime();
+                if(nanos <= 0 || Thread.currentThread().isInterrupted())
+                    return;
+            }
+
+            if(spin)
+            {
+                m_lock.unlock();
+                try
+                {
+                    while(m_available == 0 && !m_closed &&
+                          purge == m_purgeCount)
+                    {
+                        if(timed && (deadline - System.nanoTime() <= 0 ||
+                                     Thread.currentThread().isInterrupted()))
+                            break;
+
+                        if(!strategy.idle(tries))
+                        {
+                            spin = false;
+                            break;
+                        }
+
+                        if(tries < Integer.MAX_VALUE)
+                            tries++;
+                    }
+                }
+                finally
+                {
+                    m_lock.lock();
+                }
+
+                continue;
+            }
+
+            m_waiting++;
+            try
+            {
+                if(timed)
+                    m_notEmpty.awaitNanos(nanos);
+                else
+                    m_notEmpty.awaitUninterruptibly();
+            }
+            catch(InterruptedException e)
+            {
+                // Only a timed wait can get here. Give up as if the time
+                // had run out, leaving the interrupt for the caller
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally
+            {
+                m_waiting--;
+            }
+        }
+    }
+
+    /**
+     * Wake up to the given number of waiting consumers, one per new item,
+     * and tell the listeners. Must be called while holding the lock of this
+     * queue.
+     *
+     * @param num The number of new items available
+     */
+    private void wakeConsumers(int num)
+    {
+        m_available = super.size();
+
+        if(num > 0)
+        {
+            QueueListener[] list = m_listeners;
+            for(int i = 0; i < list.length; i++)
+                list[i].itemsAdded(this, num);
+        }
+
+        if(num > m_waiting)
+            num = m_waiting;
+
+        for(int i = 0; i < num; i++)
+            m_notEmpty.signal();
+    }
+
+    /**
+     * Wake up to the given number of producers waiting for room, one per
+     * free slot. Must be called while holding the lock of this queue.
+     *
+     * @param num The number of slots that have been freed
+     */
+    private void wakeProducers(int num)
+    {
+        if(num > m_waitingProducers)
+            num = m_waitingProducers;
+
+        for(int i = 0; i < num; i++)
+            m_notFull.signal();
+    }
+
+    /**
+     * Tell waiting threads that items have been taken from the queue. Must
+     * be called while holding the lock of this queue.
+     *
+     * @param num The number of items removed
+     */
+    private void itemsRemoved(int num)
+    {
+        m_available = super.size();
+
+        wakeProducers(num);
+
+        if(!super.hasNext())
+            m_empty.signalAll();
+
+        if(num > 0)
+            fireItemsRemoved(num);
+    }
+
+    /**
+     * Tell the listeners that items have been removed. Must be called while
+     * holding the lock of this queue.
+     *
+     * @param num The number of items removed
+     */
+    private void fireItemsRemoved(int num)
+    {
+        QueueListener[] list = m_listeners;
+        for(int i = 0; i < list.length; i++)
+            list[i].itemsRemoved(this, num);
+    }
+
+    /**
+     * Tell the listeners that items have been thrown away rather than
+     * taken. Statistics count them as discarded. Must be called while
+     * holding the lock of this queue.
+     *
+     * @param num The number of items thrown away
+     */
+    private void fireItemsDiscarded(int num)
+    {
+        QueueStats stats = m_stats;
+        QueueListener[] list = m_listeners;
+        for(int i = 0; i < list.length; i++)
+        {
+            if(list[i] == stats)
+                stats.itemsDiscarded(num);
+            else
+                list[i].itemsRemoved(this, num);
+        }
+    }
+
+    /**
+     * Make sure that the queue is still open for new items. Must be called
+     * while holding the lock of this queue.
+     *
+     * @throws IllegalStateException if the queue has been closed
      */
-    public synchronized void clear()
+    private void checkOpen()
     {
-        super.clear();
+        if(m_closed)
+            throw new IllegalStateException("Queue closed");
     }
 }
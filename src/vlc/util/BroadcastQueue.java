@@ -0,0 +1,613 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded 'First In First Out' (FIFO) queue where every item is seen by
+ * every consumer.
+ * <P>
+ *
+ * Items are written once into a ring buffer and numbered with a
+ * sequence. Each consumer is a {@link Consumer} object obtained from
+ * subscribe() that keeps its own sequence into the ring, so consumers read
+ * independently of each other at their own pace. The producer may not
+ * overwrite an item until the slowest consumer has read it, and waits if
+ * it gets a full ring ahead of it. With no consumers subscribed, items are
+ * simply overwritten.
+ * <P>
+ *
+ * Producers are serialized on a lock. Consumers read without locking.
+ * Reading a batch costs one sequence update for the whole batch. A
+ * consumer that finds nothing to read spins briefly before sleeping, and
+ * producers and consumers only take the lock needed to wake the other side
+ * when somebody is actually asleep.
+ * <P>
+ *
+ * A consumer only sees items added after it subscribed. Items stay
+ * referenced from the ring until their slot is overwritten.
+ * <P>
+ *
+ * Once the queue is closed, add() throws an exception and consumers
+ * return null from getNext() when they have read everything already added.
+ *
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class BroadcastQueue
+{
+    /** The default number of slots in the ring */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /** The number of times to spin before going to sleep */
+    private static final int SPIN_TRIES = 64;
+
+    /** An empty list of consumers */
+    private static final Consumer[] NO_CONSUMERS = new Consumer[0];
+
+    /** The ring of items. Length is always a power of two */
+    private final Object[] m_elements;
+
+    /** Mask to turn a sequence into an index in m_elements */
+    private final int m_mask;
+
+    /** The sequence of the last item added. -1 before the first */
+    private volatile long m_cursor = -1;
+
+    /** The subscribed consumers. Replaced, never changed in place */
+    private volatile Consumer[] m_consumers = NO_CONSUMERS;
+
+    /**
+     * The lowest consumer sequence when last looked at. Only used by the
+     * producer holding m_addLock.
+     */
+    private long m_gatingSequence = 0;
+
+    /** Set once the queue has been closed */
+    private volatile boolean m_closed = false;
+
+    /** Lock serializing producers */
+    private final ReentrantLock m_addLock = new ReentrantLock();
+
+    /** Lock for sleeping and waking threads and changing the consumers */
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /** Condition consumers sleep on when they have read everything */
+    private final Condition m_notEmpty = m_lock.newCondition();
+
+    /** Condition the producer sleeps on when the ring is full */
+    private final Condition m_notFull = m_lock.newCondition();
+
+    /** The number of consumers asleep on m_notEmpty */
+    private final AtomicInteger m_waitingConsumers = new AtomicInteger();
+
+    /** The number of producers asleep on m_notFull */
+    private final AtomicInteger m_waitingProducers = new AtomicInteger();
+
+    /**
+     * One reader of the queue, with its own position in the ring. A single
+     * Consumer must only be used by one thread at a time.
+     */
+    public class Consumer
+    {
+        /** The sequence of the next item to read */
+        private volatile long m_sequence;
+
+        /**
+         * Create a consumer that starts reading at the given sequence.
+         *
+         * @param sequence The sequence of the first item to read
+         */
+        Consumer(long sequence)
+        {
+            m_sequence = sequence;
+        }
+
+        /**
+         * Return the next item for this consumer, blocking if it has to
+         * until one is added. Returns null once the queue has been closed
+         * and this consumer has read everything in it.
+         *
+         * @return the next item, or null if the queue is closed
+         */
+        public Object getNext()
+        {
+            long seq = m_sequence;
+            if(!waitFor(seq, -1))
+                return null;
+
+            Object o = m_elements[(int)seq & m_mask];
+            advance(seq + 1);
+
+            return o;
+        }
+
+        /**
+         * Return the next item for this consumer, waiting no longer than
+         * the given time for one to be added.
+         *
+         * @param timeout The maximum time to wait
+         * @param unit The unit that the timeout is expressed in
+         * @return the next item, or null if the timeout expired, the
+         *    queue is closed or the thread was interrupted. The interrupt
+         *    status is left set
+         */
+        public Object getNext(long timeout, TimeUnit unit)
+        {
+            long seq = m_sequence;
+            if(!waitFor(seq, Math.max(0, unit.toNanos(timeout))))
+                return null;
+
+            Object o = m_elements[(int)seq & m_mask];
+            advance(seq + 1);
+
+            return o;
+        }
+
+        /**
+         * Return the next item for this consumer without waiting.
+         *
+         * @return the next item, or null if there is none
+         */
+        public Object poll()
+        {
+            long seq = m_sequence;
+            if(m_cursor < seq)
+                return null;
+
+            Object o = m_elements[(int)seq & m_mask];
+            advance(seq + 1);
+
+            return o;
+        }
+
+        /**
+         * Copy a batch of items into the given array starting at index 0.
+         * Blocks until at least one item is available, then copies as many
+         * as are present, up to the given maximum and the length of the
+         * array. Returns 0 once the queue has been closed and this consumer
+         * has read everything in it.
+         *
+         * @param max The maximum number of items to read
+         * @param items The array to copy the items to
+         * @return The number of items read
+         */
+        public int getNext(int max, Object[] items)
+        {
+            if(max <= 0 || items.length == 0)
+                return 0;
+
+            long seq = m_sequence;
+            if(!waitFor(seq, -1))
+                return 0;
+
+            long num = m_cursor - seq + 1;
+            if(num > max)
+                num = max;
+            if(num > items.length)
+                num = items.length;
+
+            for(int i = 0; i < num; i++)
+                items[i] = m_elements[(int)(seq + i) & m_mask];
+
+            advance(seq + num);
+
+            return (int)num;
+        }
+
+        /**
+         * Check if this consumer has items waiting to be read.
+         *
+         * @return true if there are items to read
+         */
+        public boolean hasNext()
+        {
+            return (m_cursor >= m_sequence);
+        }
+
+        /**
+         * Return the number of items waiting to be read by this consumer.
+         *
+         * @return the number of unread items
+         */
+        public int size()
+        {
+            return (int)(m_cursor - m_sequence + 1);
+        }
+
+        /**
+         * Stop reading from the queue. The consumer no longer holds back the
+         * producer and must not be used again.
+         */
+        public void unsubscribe()
+        {
+            removeConsumer(this);
+        }
+
+        /**
+         * Move on to the given sequence and wake the producer if it is
+         * waiting for us.
+         *
+         * @param sequence The sequence of the next item to read
+         */
+        private void advance(long sequence)
+        {
+            m_sequence = sequence;
+
+            if(m_waitingProducers.get() > 0)
+                signal(m_notFull);
+        }
+    }
+
+    /**
+     * Constructor. Create a queue with the default capacity.
+     */
+    public BroadcastQueue()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor. Create a queue that holds at least the given number of
+     * items, rounded up to a power of two.
+     *
+     * @param capacity The minimum number of slots in the ring
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public BroadcastQueue(int capacity)
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " +
+                                               capacity);
+
+        int size = 1;
+        while(size < capacity)
+            size <<= 1;
+
+        m_elements = new Object[size];
+        m_mask = size - 1;
+    }
+
+    /**
+     * Create a new consumer of the queue. It will see every item added from
+     * now on.
+     *
+     * @return The new consumer
+     */
+    public Consumer subscribe()
+    {
+        // Holding off producers means the starting sequence and the set of
+        // consumers they gate on change together
+        m_addLock.lock();
+        try
+        {
+            m_lock.lock();
+            try
+            {
+                Consumer c = new Consumer(m_cursor + 1);
+
+                Consumer[] old = m_consumers;
+                Consumer[] list = new Consumer[old.length + 1];
+                System.arraycopy(old, 0, list, 0, old.length);
+                list[old.length] = c;
+                m_consumers = list;
+
+                return c;
+            }
+            finally
+            {
+                m_lock.unlock();
+            }
+        }
+        finally
+        {
+            m_addLock.unlock();
+        }
+    }
+
+    /**
+     * Add an item to the end of the queue for every consumer to read,
+     * waiting if the slowest consumer is a full ring behind.
+     *
+     * @param o The item to add
+     * @throws NullPointerException if the item is null
+     * @throws IllegalStateException if the queue has been closed
+     */
+    public void add(Object o)
+    {
+        if(o == null)
+            throw new NullPointerException("Null items not allowed");
+
+        while(true)
+        {
+            long next;
+
+            m_addLock.lock();
+            try
+            {
+                if(m_closed)
+                    throw new IllegalStateException("Queue is closed");
+
+                next = m_cursor + 1;
+
+                if(next - m_gatingSequence > m_mask)
+                    m_gatingSequence = minimumSequence(next);
+
+                if(next - m_gatingSequence <= m_mask)
+                {
+                    m_elements[(int)next & m_mask] = o;
+                    m_cursor = next;
+                    break;
+                }
+            }
+            finally
+            {
+                m_addLock.unlock();
+            }
+
+            // Wait without m_addLock so consumers can come and go, then
+            // claim the next sequence again
+            waitForSpace(next);
+        }
+
+        if(m_waitingConsumers.get() > 0)
+            signal(m_notEmpty);
+    }
+
+    /**
+     * Get the number of slots in the ring.
+     *
+     * @return The capacity of the queue
+     */
+    public int getCapacity()
+    {
+        return m_elements.length;
+    }
+
+    /**
+     * Get the number of consumers currently subscribed.
+     *
+     * @return The number of consumers
+     */
+    public int getConsumerCount()
+    {
+        return m_consumers.length;
+    }
+
+    /**
+     * Close the queue. Producers can no longer add to it, and consumers get
+     * null from getNext() once they have read everything in it.
+     */
+    public void close()
+    {
+        m_closed = true;
+
+        m_lock.lock();
+        try
+        {
+            m_notEmpty.signalAll();
+            m_notFull.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check to see if the queue has been closed.
+     *
+     * @return true if close() has been called
+     */
+    public boolean isClosed()
+    {
+        return m_closed;
+    }
+
+    /**
+     * Find the sequence of the slowest consumer. With no consumers, nothing
+     * holds the producer back.
+     *
+     * @param next The sequence the producer wants to write
+     * @return The lowest sequence any consumer still has to read
+     */
+    private long minimumSequence(long next)
+    {
+        Consumer[] list = m_consumers;
+        long min = next;
+
+        for(int i = 0; i < list.length; i++)
+        {
+            long seq = list[i].m_sequence;
+            if(seq < min)
+                min = seq;
+        }
+
+        return min;
+    }
+
+    /**
+     * Wait until every consumer has read far enough for the given sequence
+     * to be written. Must be called without m_addLock held.
+     *
+     * @param next The sequence the producer wants to write
+     * @throws IllegalStateException if the queue is closed while waiting
+     */
+    private void waitForSpace(long next)
+    {
+        for(int tries = 0; next - minimumSequence(next) > m_mask; tries++)
+        {
+            if(m_closed)
+                throw new IllegalStateException("Queue is closed");
+
+            if(tries < SPIN_TRIES)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                m_lock.lock();
+                m_waitingProducers.incrementAndGet();
+                try
+                {
+                    if(next - minimumSequence(next) > m_mask && !m_closed)
+                        m_notFull.awaitUninterruptibly();
+                }
+                finally
+                {
+                    m_waitingProducers.decrementAndGet();
+                    m_lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the item with the given sequence has been added. A timed
+     * wait also ends if the thread is interrupted, leaving the interrupt
+     * status set, while an untimed one carries on.
+     *
+     * @param seq The sequence to wait for
+     * @param nanos The maximum time to wait, or negative to wait forever
+     * @return true if the item is there, false if the queue was closed,
+     *    the time ran out or the thread was interrupted first
+     */
+    private boolean waitFor(long seq, long nanos)
+    {
+        if(m_cursor >= seq)
+            return true;
+
+        long deadline = System.nanoTime() + nanos;
+
+        for(int tries = 0; m_cursor < seq; tries++)
+        {
+            if(m_closed)
+                return (m_cursor >= seq);
+
+            if(nanos >= 0 && Thread.currentThread().isInterrupted())
+                return false;
+
+            if(tries < SPIN_TRIES)
+            {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            m_lock.lock();
+            m_waitingConsumers.incrementAndGet();
+            try
+            {
+                while(m_cursor < seq && !m_closed)
+                {
+                    if(nanos < 0)
+                    {
+                        m_notEmpty.awaitUninterruptibly();
+                        continue;
+                    }
+
+                    long left = deadline - System.nanoTime();
+                    if(left <= 0)
+                        return false;
+
+                    try
+                    {
+                        m_notEmpty.awaitNanos(left);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        // Give up as if the time had run out
+                        Thread.currentThread().interrupt();
+                        return (m_cursor >= seq);
+                    }
+                }
+            }
+            finally
+            {
+                m_waitingConsumers.decrementAndGet();
+                m_lock.unlock();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove a consumer from the list, and wake the producer in case it was
+     * waiting for that consumer.
+     *
+     * @param c The consumer to remove
+     */
+    private void removeConsumer(Consumer c)
+    {
+        m_addLock.lock();
+        try
+        {
+            m_lock.lock();
+            try
+            {
+                Consumer[] old = m_consumers;
+
+                for(int i = 0; i < old.length; i++)
+                {
+                    if(old[i] != c)
+                        continue;
+
+                    Consumer[] list = new Consumer[old.length - 1];
+                    System.arraycopy(old, 0, list, 0, i);
+                    System.arraycopy(old, i + 1, list, i, old.length - i - 1);
+                    m_consumers = list;
+                    m_notFull.signalAll();
+                    break;
+                }
+            }
+            finally
+            {
+                m_lock.unlock();
+            }
+        }
+        finally
+        {
+            m_addLock.unlock();
+        }
+    }
+
+    /**
+     * Wake everybody waiting on the given condition.
+     *
+     * @param cond The condition to signal
+     */
+    private void signal(Condition cond)
+    {
+        m_lock.lock();
+        try
+        {
+            cond.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking version of the {@link CoalescingQueue}.
+ * <P>
+ *
+ * Can be used concurrently by seperate threads. If there are no values in
+ * the queue, getNext() will block until it is not empty. Replacing a value
+ * that is already waiting does not wake a consumer, as there is no new
+ * work for it.
+ *
+ * @see vlc.util.CoalescingQueue
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class CoalescingBlockingQueue extends CoalescingQueue
+{
+    /** Incremented for every purge so that waiting consumers can leave */
+    private int m_purgeCount = 0;
+
+    /** Lock guarding all access to the queue */
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /** Condition consumers wait on when the queue is empty */
+    private final Condition m_notEmpty = m_lock.newCondition();
+
+    /**
+     * Constructor. Create an empty queue.
+     */
+    public CoalescingBlockingQueue()
+    {
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * distinct keys before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of keys to make room for
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public CoalescingBlockingQueue(int initialSize)
+    {
+        super(initialSize);
+    }
+
+    /**
+     * Add a value for the given key. If a value for the key is already in
+     * the queue it is replaced, keeping its place in the queue.
+     *
+     * @param key The key the value belongs to
+     * @param value The value to add
+     * @return true if the key was not already in the queue
+     * @throws NullPointerException if the value is null
+     */
+    public boolean add(int key, Object value)
+    {
+        m_lock.lock();
+        try
+        {
+            boolean added = super.add(key, value);
+            if(added)
+                m_notEmpty.signal();
+
+            return added;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value at the front of the queue, and remove it from the
+     * queue. Under normal circumstances this method will always return a
+     * value, blocking if it has to until something is available. If the
+     * queue is purged while waiting, null is returned instead.
+     *
+     * @return value at the front of the queue, will block until queue is
+     *    not empty.
+     */
+    public Object getNext()
+    {
+        m_lock.lock();
+        try
+        {
+            int purge = m_purgeCount;
+
+            while(!super.hasNext() && purge == m_purgeCount)
+                m_notEmpty.awaitUninterruptibly();
+
+            return super.getNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value at the front of the queue, and remove it from the
+     * queue, waiting no longer than the given time for one to be added.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return value at the front of the queue, or null if the timeout
+     *    expired, the queue was purged or the thread was interrupted
+     *    first. The interrupt status is left set
+     */
+    public Object getNext(long timeout, TimeUnit unit)
+    {
+        long nanos = unit.toNanos(timeout);
+
+        m_lock.lock();
+        try
+        {
+            int purge = m_purgeCount;
+
+            while(!super.hasNext() && purge == m_purgeCount && nanos > 0)
+            {
+                try
+                {
+                    nanos = m_notEmpty.awaitNanos(nanos);
+                }
+                catch(InterruptedException e)
+                {
+                    // Give up as if the time had run out
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            return super.getNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value at the front of the queue and remove it, without
+     * waiting.
+     *
+     * @return value at the front of the queue, or null if empty
+     */
+    public Object poll()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.getNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the value at the front of the queue.
+     *
+     * @return value at the front of the queue, null if empty.
+     */
+    public Object peekNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.peekNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value waiting in the queue for the given key.
+     *
+     * @param key The key to look for
+     * @return The pending value, or null if the key is not in the queue
+     */
+    public Object getPending(int key)
+    {
+        m_lock.lock();
+        try
+        {
+            return super.getPending(key);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check if queue has more values.
+     *
+     * @return true if queue has more values.
+     */
+    public boolean hasNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.hasNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the size of the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.size();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all values from queue. Also unblock those who are waiting for
+     * values in the queue. They leave the getNext() method with null.
+     */
+    public void purge()
+    {
+        m_lock.lock();
+        try
+        {
+            super.clear();
+            m_purgeCount++;
+            m_notEmpty.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the queue of values. If there are users of the class that are
+     * blocked while waiting for values in the queue, they remain so.
+     */
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            super.clear();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+}
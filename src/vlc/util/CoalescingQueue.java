@@ -0,0 +1,205 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * 'First In First Out' (FIFO) queue where a newer value for a key replaces
+ * the one still waiting in the queue.
+ * <P>
+ *
+ * Each value is added with an int key, typically the ID of the entity the
+ * value describes. If a value for that key is already waiting, the new
+ * value takes its place and its position in the queue, so the consumer
+ * only ever sees the latest value and never more items than there are
+ * distinct keys waiting. Once a value has been taken from the queue, the
+ * next value for its key goes to the back of the queue as normal.
+ * <P>
+ *
+ * The pending values are indexed by an {@link IntHashMap} and the order of
+ * the keys is kept in a circular int array, so keys are not boxed.
+ * <P>
+ *
+ * This simple queue does not block if you request an item. If nothing is
+ * in the queue then it just returns you a null value.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.Queue
+ * @author  Justin Couch
+ * @version 1.0
+ */
+public class CoalescingQueue
+{
+    /** The default number of keys to make room for */
+    private static final int DEFAULT_SIZE = 16;
+
+    /** The latest value for each key waiting in the queue */
+    private IntHashMap m_pending;
+
+    /** Circular array of waiting keys. Length is always a power of two */
+    private int[] m_keys;
+
+    /** Index of the key at the front of the queue */
+    private int m_head;
+
+    /** The number of keys currently in the queue */
+    private int m_count;
+
+    /**
+     * Constructor. Create an empty queue.
+     */
+    public CoalescingQueue()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * distinct keys before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of keys to make room for
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public CoalescingQueue(int initialSize)
+    {
+        if(initialSize <= 0)
+            throw new IllegalArgumentException("Illegal size: " +
+                                               initialSize);
+
+        int size = 1;
+        while(size < initialSize)
+            size <<= 1;
+
+        m_keys = new int[size];
+        m_pending = new IntHashMap(size);
+    }
+
+    /**
+     * Add a value for the given key. If a value for the key is already in
+     * the queue it is replaced, keeping its place in the queue.
+     *
+     * @param key The key the value belongs to
+     * @param value The value to add
+     * @return true if the key was not already in the queue
+     * @throws NullPointerException if the value is null
+     */
+    public boolean add(int key, Object value)
+    {
+        if(m_pending.put(key, value) != null)
+            return false;
+
+        if(m_count == m_keys.length)
+            grow();
+
+        m_keys[(m_head + m_count) & (m_keys.length - 1)] = key;
+        m_count++;
+
+        return true;
+    }
+
+    /**
+     * Return the value at the front and remove it from the queue.
+     *
+     * @return value at the front of the queue, or null if empty.
+     */
+    public Object getNext()
+    {
+        if(m_count == 0)
+            return null;
+
+        int key = m_keys[m_head];
+        m_head = (m_head + 1) & (m_keys.length - 1);
+        m_count--;
+
+        return m_pending.remove(key);
+    }
+
+    /**
+     * Return the value at the front of the queue.
+     *
+     * @return value at the front of the queue, or null if empty.
+     */
+    public Object peekNext()
+    {
+        if(m_count == 0)
+            return null;
+
+        return m_pending.get(m_keys[m_head]);
+    }
+
+    /**
+     * Return the value waiting in the queue for the given key.
+     *
+     * @param key The key to look for
+     * @return The pending value, or null if the key is not in the queue
+     */
+    public Object getPending(int key)
+    {
+        return m_pending.get(key);
+    }
+
+    /**
+     * Check if queue has more elements.
+     *
+     * @return true if queue has more elements.
+     */
+    public boolean hasNext()
+    {
+        return (m_count > 0);
+    }
+
+    /**
+     * Return the number of values, and so distinct keys, in the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * Remove all elements in the queue.
+     */
+    public void clear()
+    {
+        m_pending.clear();
+        m_head = 0;
+        m_count = 0;
+    }
+
+    /**
+     * Double the size of the key storage, unwrapping the current contents
+     * so that the front of the queue is at index zero.
+     */
+    private void grow()
+    {
+        int old_size = m_keys.length;
+        int[] new_keys = new int[old_size << 1];
+
+        int front = old_size - m_head;
+        System.arraycopy(m_keys, m_head, new_keys, 0, front);
+        System.arraycopy(m_keys, 0, new_keys, front, m_head);
+
+        m_keys = new_keys;
+        m_head = 0;
+    }
+}
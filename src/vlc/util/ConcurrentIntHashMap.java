@@ -0,0 +1,627 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * A thread safe hash map that uses primitive ints for the key rather than
+ * objects.
+ * <P>
+ *
+ * The map is split into a number of segments, picked by the high bits of
+ * the mixed hash of the key. Each segment is an open addressing table like
+ * {@link IntHashMap}, with its own lock that is taken by put(), remove()
+ * and the other methods that change it, so writers only contend when they
+ * hit the same segment.
+ * <P>
+ *
+ * get() and containsKey() never lock. Once a slot of a table has been given
+ * a key it keeps that key for the life of the table, and the values are
+ * read and written with volatile semantics, so a reader that sees a value
+ * also sees the key that was written before it. Removing a key leaves a
+ * REMOVED marker in its slot, which a later put() of the same key reuses.
+ * When a segment fills up, with live entries and markers together, its
+ * writer builds a new table holding just the live entries and swaps it in.
+ * Readers carry on with the old table until then, and other segments are
+ * not affected.
+ * <P>
+ *
+ * Values may not be null. size() and containsValue() are only a snapshot
+ * while the map is being changed.
+ *
+ * @see vlc.util.IntHashMap
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class ConcurrentIntHashMap
+{
+    /** The default number of segments */
+    private static final int DEFAULT_CONCURRENCY = 16;
+
+    /** The default number of slots across all segments */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** The largest number of segments */
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    /** The largest table in a segment */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** How full a table may get, counting REMOVED markers */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Marks the slot of a key that has been removed */
+    private static final Object REMOVED = new Object();
+
+    /** The segments. Length is always a power of two */
+    private final Segment[] m_segments;
+
+    /** The number of bits to shift a hash by to get its segment */
+    private final int m_segmentShift;
+
+    /**
+     * The slots of one segment. A slot with a null value is empty and its
+     * key is not used. Once a slot has a value its key never changes.
+     */
+    private static class Table
+    {
+        /** The key of each slot */
+        final int[] keys;
+
+        /** The value of each slot, read and written as volatile */
+        final AtomicReferenceArray values;
+
+        /** The number of slots with a value, live or REMOVED */
+        int used;
+
+        /**
+         * Create an empty table.
+         *
+         * @param capacity The number of slots. Must be a power of two
+         */
+        Table(int capacity)
+        {
+            keys = new int[capacity];
+            values = new AtomicReferenceArray(capacity);
+        }
+    }
+
+    /**
+     * One part of the map, with its own table and lock.
+     */
+    private static class Segment
+    {
+        /** Lock taken by everything that changes the segment */
+        final ReentrantLock lock = new ReentrantLock();
+
+        /** The current table. Replaced when the segment is resized */
+        volatile Table table;
+
+        /** The number of live entries */
+        volatile int count;
+
+        /**
+         * Create a segment with an empty table.
+         *
+         * @param capacity The number of slots. Must be a power of two
+         */
+        Segment(int capacity)
+        {
+            table = new Table(capacity);
+        }
+
+        /**
+         * Look up a key without locking.
+         *
+         * @param key The key to look for
+         * @param hash The mixed hash of the key
+         * @return The value, or null if the key is not mapped
+         */
+        Object get(int key, int hash)
+        {
+            Table tab = table;
+            int[] keys = tab.keys;
+            AtomicReferenceArray vals = tab.values;
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            Object v;
+
+            while((v = vals.get(index)) != null)
+            {
+                if(keys[index] == key)
+                    return (v == REMOVED) ? null : v;
+
+                index = (index + 1) & mask;
+            }
+
+            return null;
+        }
+
+        /**
+         * Map a key to a value. Must be called with the lock held.
+         *
+         * @param key The key
+         * @param hash The mixed hash of the key
+         * @param value The value, which may not be null
+         * @param onlyIfAbsent true to leave an existing mapping alone
+         * @return The previous value, or null if there was none
+         * @throws IllegalStateException if the table is at its maximum
+         *    capacity and cannot take a new key
+         */
+        Object put(int key, int hash, Object value, boolean onlyIfAbsent)
+        {
+            Table tab = table;
+            int index = find(tab, key, hash);
+            Object old = tab.values.get(index);
+
+            if(old != null && old != REMOVED)
+            {
+                if(!onlyIfAbsent)
+                    tab.values.set(index, value);
+
+                return old;
+            }
+
+            if(old == null)
+            {
+                if(tab.used >= threshold(tab))
+                {
+                    tab = resize();
+
+                    // Only a table that could not grow is still too full
+                    if(tab.used >= threshold(tab))
+                        throw new IllegalStateException("Segment is full");
+
+                    index = find(tab, key, hash);
+                }
+
+                tab.used++;
+
+                // The key has to be there before the value makes the slot
+                // visible to readers
+                tab.keys[index] = key;
+            }
+
+            tab.values.set(index, value);
+            count++;
+
+            return null;
+        }
+
+        /**
+         * Remove the mapping of a key. Must be called with the lock held.
+         *
+         * @param key The key
+         * @param hash The mixed hash of the key
+         * @return The previous value, or null if there was none
+         */
+        Object remove(int key, int hash)
+        {
+            Table tab = table;
+            int index = find(tab, key, hash);
+            Object old = tab.values.get(index);
+
+            if(old == null || old == REMOVED)
+                return null;
+
+            tab.values.set(index, REMOVED);
+            count--;
+
+            return old;
+        }
+
+        /**
+         * Throw away all of the entries. Must be called with the lock held.
+         */
+        void clear()
+        {
+            table = new Table(table.keys.length);
+            count = 0;
+        }
+
+        /**
+         * Find the slot of a key, or the empty slot that ends its probe
+         * sequence if it has never been in the table.
+         *
+         * @param tab The table to look in
+         * @param key The key
+         * @param hash The mixed hash of the key
+         * @return The index of the slot
+         */
+        private int find(Table tab, int key, int hash)
+        {
+            int[] keys = tab.keys;
+            AtomicReferenceArray vals = tab.values;
+            int mask = keys.length - 1;
+            int index = hash & mask;
+
+            while(vals.get(index) != null && keys[index] != key)
+                index = (index + 1) & mask;
+
+            return index;
+        }
+
+        /**
+         * Work out how many slots of a table may be used, always leaving at
+         * least one empty.
+         *
+         * @param tab The table
+         * @return The number of slots that may be used
+         */
+        private int threshold(Table tab)
+        {
+            int capacity = tab.keys.length;
+            int limit = (int)(capacity * LOAD_FACTOR);
+
+            return (limit >= capacity) ? capacity - 1 : limit;
+        }
+
+        /**
+         * Copy the live entries into a new table, twice the size if they
+         * need it, and make it the current table. Readers still using the
+         * old table see it as it was. Must be called with the lock held.
+         *
+         * @return The new table
+         */
+        private Table resize()
+        {
+            Table old = table;
+            int capacity = old.keys.length;
+
+            // Only grow if the live entries alone would fill half the table
+            if(count >= capacity >> 1 && capacity < MAXIMUM_CAPACITY)
+                capacity <<= 1;
+
+            Table tab = new Table(capacity);
+            int[] keys = tab.keys;
+            AtomicReferenceArray vals = tab.values;
+            int mask = capacity - 1;
+
+            for(int i = 0; i < old.keys.length; i++)
+            {
+                Object v = old.values.get(i);
+                if(v == null || v == REMOVED)
+                    continue;
+
+                int index = PrimitiveHash.hash(old.keys[i]) & mask;
+                while(vals.get(index) != null)
+                    index = (index + 1) & mask;
+
+                keys[index] = old.keys[i];
+                vals.lazySet(index, v);
+                tab.used++;
+            }
+
+            // Publishing the table publishes its contents
+            table = tab;
+
+            return tab;
+        }
+    }
+
+    /**
+     * Constructor. Create an empty map with the default capacity and
+     * number of segments.
+     */
+    public ConcurrentIntHashMap()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructor. Create an empty map with room for the given number of
+     * entries and the default number of segments.
+     *
+     * @param initialCapacity The number of entries to make room for
+     * @throws IllegalArgumentException if the capacity is negative
+     */
+    public ConcurrentIntHashMap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructor. Create an empty map with room for the given number of
+     * entries, split into enough segments for the given number of threads
+     * to write at once.
+     *
+     * @param initialCapacity The number of entries to make room for
+     * @param concurrencyLevel The expected number of concurrent writers
+     * @throws IllegalArgumentException if the capacity is negative or the
+     *    concurrency level is not positive
+     */
+    public ConcurrentIntHashMap(int initialCapacity, int concurrencyLevel)
+    {
+        if(initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal capacity: " +
+                                               initialCapacity);
+
+        if(concurrencyLevel <= 0)
+            throw new IllegalArgumentException("Illegal concurrency: " +
+                                               concurrencyLevel);
+
+        int segments = 1;
+        int shift = 32;
+        while(segments < concurrencyLevel && segments < MAX_SEGMENTS)
+        {
+            segments <<= 1;
+            shift--;
+        }
+
+        int perSegment = (int)(initialCapacity / LOAD_FACTOR) / segments + 1;
+        int capacity = 2;
+        while(capacity < perSegment && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+
+        m_segments = new Segment[segments];
+        m_segmentShift = shift;
+
+        for(int i = 0; i < segments; i++)
+            m_segments[i] = new Segment(capacity);
+    }
+
+    /**
+     * Returns the value to which the key is mapped. Does not lock.
+     *
+     * @param key The key to look up
+     * @return The value, or null if the key is not mapped
+     */
+    public Object get(int key)
+    {
+        int hash = PrimitiveHash.hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Tests if the key is mapped to a value. Does not lock.
+     *
+     * @param key The key to look up
+     * @return true if the key is mapped
+     */
+    public boolean containsKey(int key)
+    {
+        int hash = PrimitiveHash.hash(key);
+        return segmentFor(hash).get(key, hash) != null;
+    }
+
+    /**
+     * Tests if some key is mapped to the given value. This has to look at
+     * every entry, without locking.
+     *
+     * @param value The value to look for
+     * @return true if a key maps to a value equal to the given one
+     * @throws NullPointerException if the value is null
+     */
+    public boolean containsValue(Object value)
+    {
+        if(value == null)
+            throw new NullPointerException("Value is null");
+
+        for(int i = 0; i < m_segments.length; i++)
+        {
+            AtomicReferenceArray vals = m_segments[i].table.values;
+
+            for(int j = vals.length(); j-- > 0; )
+            {
+                Object v = vals.get(j);
+                if(v != null && v != REMOVED && v.equals(value))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Maps the key to the value, replacing any previous mapping.
+     *
+     * @param key The key
+     * @param value The value
+     * @return The previous value, or null if the key was not mapped
+     * @throws NullPointerException if the value is null
+     * @throws IllegalStateException if a new key would take its segment
+     *    past the load factor at the maximum capacity
+     */
+    public Object put(int key, Object value)
+    {
+        if(value == null)
+            throw new NullPointerException("Value is null");
+
+        int hash = PrimitiveHash.hash(key);
+        Segment seg = segmentFor(hash);
+
+        seg.lock.lock();
+        try
+        {
+            return seg.put(key, hash, value, false);
+        }
+        finally
+        {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * Maps the key to the value only if the key is not already mapped.
+     *
+     * @param key The key
+     * @param value The value
+     * @return The current value, or null if the key was not mapped and now
+     *    maps to the given value
+     * @throws NullPointerException if the value is null
+     * @throws IllegalStateException if a new key would take its segment
+     *    past the load factor at the maximum capacity
+     */
+    public Object putIfAbsent(int key, Object value)
+    {
+        if(value == null)
+            throw new NullPointerException("Value is null");
+
+        int hash = PrimitiveHash.hash(key);
+        Segment seg = segmentFor(hash);
+
+        seg.lock.lock();
+        try
+        {
+            return seg.put(key, hash, value, true);
+        }
+        finally
+        {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the value the key maps to, first mapping it to a value made
+     * by the given function if it is not mapped. The function is called at
+     * most once, with the segment locked, so it must be quick and must not
+     * change this map. If it returns null nothing is mapped. A key that is
+     * already mapped is found without locking.
+     *
+     * @param key The key
+     * @param function Makes the value for the key
+     * @return The current or new value, or null if the function returned
+     *    null
+     * @throws IllegalStateException if a new key would take its segment
+     *    past the load factor at the maximum capacity
+     */
+    public Object computeIfAbsent(int key, IntFunction function)
+    {
+        int hash = PrimitiveHash.hash(key);
+        Segment seg = segmentFor(hash);
+
+        Object v = seg.get(key, hash);
+        if(v != null)
+            return v;
+
+        seg.lock.lock();
+        try
+        {
+            v = seg.get(key, hash);
+            if(v != null)
+                return v;
+
+            v = function.apply(key);
+            if(v != null)
+                seg.put(key, hash, v, false);
+
+            return v;
+        }
+        finally
+        {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the mapping of the key, if there is one.
+     *
+     * @param key The key
+     * @return The value the key mapped to, or null if it was not mapped
+     */
+    public Object remove(int key)
+    {
+        int hash = PrimitiveHash.hash(key);
+        Segment seg = segmentFor(hash);
+
+        // Nothing to lock for if it is not there
+        if(seg.get(key, hash) == null)
+            return null;
+
+        seg.lock.lock();
+        try
+        {
+            return seg.remove(key, hash);
+        }
+        finally
+        {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return The number of keys in the map
+     */
+    public int size()
+    {
+        long sum = 0;
+        for(int i = 0; i < m_segments.length; i++)
+            sum += m_segments[i].count;
+
+        return (sum > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)sum;
+    }
+
+    /**
+     * Tests if the map has no mappings.
+     *
+     * @return true if the map is empty
+     */
+    public boolean isEmpty()
+    {
+        for(int i = 0; i < m_segments.length; i++)
+        {
+            if(m_segments[i].count != 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all of the mappings, one segment at a time.
+     */
+    public void clear()
+    {
+        for(int i = 0; i < m_segments.length; i++)
+        {
+            Segment seg = m_segments[i];
+
+            seg.lock.lock();
+            try
+            {
+                seg.clear();
+            }
+            finally
+            {
+                seg.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Find the segment for a hash, from its high bits.
+     *
+     * @param hash The mixed hash of the key
+     * @return The segment the key belongs to
+     */
+    private Segment segmentFor(int hash)
+    {
+        // A shift of 32 is taken as 0 by Java, so one segment needs care
+        if(m_segments.length == 1)
+            return m_segments[0];
+
+        return m_segments[hash >>> m_segmentShift];
+    }
+}
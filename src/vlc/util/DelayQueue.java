@@ -0,0 +1,584 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking queue whose items only become available once their delay has
+ * passed.
+ * <P>
+ *
+ * Works like the {@link BlockingQueue}, except that each item is added
+ * with a delay and getNext() will not return it before then. Items come
+ * out in order of the time they become available, and items due at the
+ * same time come out in the order they were added. This replaces sleeping
+ * a thread and re-adding an item to a BlockingQueue for retries and
+ * timeouts: one consumer thread can serve any number of pending items.
+ * <P>
+ *
+ * The pending items are held in a binary heap built from parallel arrays,
+ * so no object is created per item. Adding and removing are O(log n). Only
+ * one waiting consumer at a time sleeps with a timeout for the item at the
+ * front; the others sleep until it hands over to them.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class DelayQueue
+{
+    /** The default number of slots in a newly created queue */
+    private static final int DEFAULT_SIZE = 16;
+
+    /** Heap of items ordered by m_deadlines then m_sequences */
+    private Object[] m_items;
+
+    /** The System.nanoTime() at which each item becomes available */
+    private long[] m_deadlines;
+
+    /** Order each item was added in, to keep ties first in first out */
+    private long[] m_sequences;
+
+    /** The number of items in the heap */
+    private int m_count;
+
+    /** The sequence number to give to the next item */
+    private long m_nextSequence;
+
+    /** Incremented for every purge so that waiting consumers can leave */
+    private int m_purgeCount;
+
+    /** The consumer waiting for the front item to become due, if any */
+    private Thread m_leader;
+
+    /** Lock guarding all access to the queue */
+    private final ReentrantLock m_lock;
+
+    /** Condition consumers wait on for an item to be available */
+    private final Condition m_available;
+
+    /**
+     * Constructor. Create an empty queue.
+     */
+    public DelayQueue()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * items before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of items to make room for
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public DelayQueue(int initialSize)
+    {
+        if(initialSize <= 0)
+            throw new IllegalArgumentException("Illegal size: " +
+                                               initialSize);
+
+        m_items = new Object[initialSize];
+        m_deadlines = new long[initialSize];
+        m_sequences = new long[initialSize];
+
+        m_lock = new ReentrantLock();
+        m_available = m_lock.newCondition();
+    }
+
+    /**
+     * Add an object that is available straight away.
+     *
+     * @param o Object to add.
+     */
+    public void add(Object o)
+    {
+        add(o, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Add an object that becomes available after the given delay.
+     *
+     * @param o Object to add.
+     * @param delay How long until the object is available
+     * @param unit The unit that the delay is expressed in
+     * @throws NullPointerException if the object is null
+     */
+    public void add(Object o, long delay, TimeUnit unit)
+    {
+        if(o == null)
+            throw new NullPointerException("Null items are not allowed");
+
+        long deadline = System.nanoTime() + unit.toNanos(delay);
+
+        m_lock.lock();
+        try
+        {
+            if(m_count == m_items.length)
+                grow();
+
+            int pos = siftUp(m_count, deadline, m_nextSequence);
+            m_items[pos] = o;
+            m_deadlines[pos] = deadline;
+            m_sequences[pos] = m_nextSequence++;
+            m_count++;
+
+            // A new front item may be due sooner than the leader is
+            // waiting for, so make someone look at it.
+            if(pos == 0)
+            {
+                m_leader = null;
+                m_available.signal();
+            }
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the first available element, and remove it from the queue.
+     * Under normal circumstances this method will always return an object,
+     * blocking if it has to until one is due. If the queue is purged while
+     * waiting, null is returned instead.
+     *
+     * @return the next due element, will block until there is one.
+     */
+    public Object getNext()
+    {
+        return waitForNext(-1);
+    }
+
+    /**
+     * Return the first available element, and remove it from the queue,
+     * waiting no longer than the given time for one to become due.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return the next due element, or null if the timeout expired, the
+     *    queue was purged or the thread was interrupted first. The
+     *    interrupt status is left set
+     */
+    public Object getNext(long timeout, TimeUnit unit)
+    {
+        return waitForNext(Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Return the first element if it is due and remove it, without waiting.
+     *
+     * @return the next due element, or null if none are due
+     */
+    public Object poll()
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_count == 0 || m_deadlines[0] - System.nanoTime() > 0)
+                return null;
+
+            return removeFirst();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the element that will be available next, whether or not it is
+     * due yet.
+     *
+     * @return the next element, null if empty.
+     */
+    public Object peekNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return (m_count == 0) ? null : m_items[0];
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the time left until the next element is due.
+     *
+     * @param unit The unit to express the time in
+     * @return The delay, zero or less if an element is due now, or
+     *    Long.MAX_VALUE if the queue is empty
+     */
+    public long getNextDelay(TimeUnit unit)
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_count == 0)
+                return Long.MAX_VALUE;
+
+            return unit.convert(m_deadlines[0] - System.nanoTime(),
+                                TimeUnit.NANOSECONDS);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check if there is an element that is due.
+     *
+     * @return true if getNext() would return straight away.
+     */
+    public boolean hasNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return (m_count > 0 && m_deadlines[0] - System.nanoTime() <= 0);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of elements in the queue, due or not.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        m_lock.lock();
+        try
+        {
+            return m_count;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all elements from queue. Also unblock those who are waiting for
+     * items in the queue. They leave the getNext() method with null.
+     */
+    public void purge()
+    {
+        m_lock.lock();
+        try
+        {
+            removeAll();
+            m_purgeCount++;
+            m_leader = null;
+            m_available.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the queue of items. If there are users of the class that are
+     * blocked while waiting for elements in the queue, they remain so.
+     */
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            removeAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the front element to be due and remove it. A timed wait
+     * ends early if the thread is interrupted, while an untimed one
+     * carries on. Either way the interrupt status is left set.
+     *
+     * @param nanos The maximum time to wait in nanoseconds, or a negative
+     *    value to wait for as long as it takes
+     * @return The element or null if the time ran out, the thread was
+     *    interrupted or a purge happened
+     */
+    private Object waitForNext(long nanos)
+    {
+        boolean timed = (nanos >= 0);
+        long deadline = System.nanoTime() + nanos;
+        Thread me = Thread.currentThread();
+        boolean interrupted = false;
+
+        m_lock.lock();
+        try
+        {
+            int purge = m_purgeCount;
+
+            while(purge == m_purgeCount)
+            {
+                long now = System.nanoTime();
+                long delay = Long.MAX_VALUE;
+
+                if(m_count > 0)
+                {
+                    delay = m_deadlines[0] - now;
+                    if(delay <= 0)
+                        return removeFirst();
+                }
+
+                if(timed)
+                {
+                    nanos = deadline - now;
+                    if(nanos <= 0)
+                        return null;
+                }
+
+                try
+                {
+                    if(m_count == 0 || m_leader != null)
+                    {
+                        if(timed)
+                            m_available.awaitNanos(nanos);
+                        else
+                            m_available.awaitUninterruptibly();
+                    }
+                    else
+                    {
+                        m_leader = me;
+                        try
+                        {
+                            m_available.awaitNanos(timed && nanos < delay ?
+                                                   nanos : delay);
+                        }
+                        finally
+                        {
+                            if(m_leader == me)
+                                m_leader = null;
+                        }
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    // A timed wait gives up as if the time had run out. An
+                    // untimed one carries on and sets the status on the way
+                    // out, as awaitUninterruptibly() would
+                    if(timed)
+                    {
+                        me.interrupt();
+                        return null;
+                    }
+
+                    interrupted = true;
+                }
+            }
+
+            return null;
+        }
+        finally
+        {
+            if(interrupted)
+                me.interrupt();
+
+            // Hand the job of watching the front item to another consumer
+            if(m_leader == null && m_count > 0)
+                m_available.signal();
+
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the element at the top of the heap. Must be called while
+     * holding the lock.
+     *
+     * @return The element removed
+     */
+    private Object removeFirst()
+    {
+        Object o = m_items[0];
+        int last = --m_count;
+
+        if(last > 0)
+        {
+            Object item = m_items[last];
+            long deadline = m_deadlines[last];
+            long seq = m_sequences[last];
+
+            int pos = siftDown(0, deadline, seq);
+            m_items[pos] = item;
+            m_deadlines[pos] = deadline;
+            m_sequences[pos] = seq;
+        }
+
+        m_items[last] = null;
+
+        return o;
+    }
+
+    /**
+     * Move parents down from the given hole until the right place for an
+     * entry with the given ordering is found. Must be called while holding
+     * the lock.
+     *
+     * @param pos The index of the hole to start from
+     * @param deadline The deadline of the entry being placed
+     * @param seq The sequence number of the entry being placed
+     * @return The index the entry should be stored at
+     */
+    private int siftUp(int pos, long deadline, long seq)
+    {
+        while(pos > 0)
+        {
+            int parent = (pos - 1) >>> 1;
+            if(!before(deadline, seq, parent))
+                break;
+
+            move(parent, pos);
+            pos = parent;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Move children up from the given hole until the right place for an
+     * entry with the given ordering is found. Must be called while holding
+     * the lock.
+     *
+     * @param pos The index of the hole to start from
+     * @param deadline The deadline of the entry being placed
+     * @param seq The sequence number of the entry being placed
+     * @return The index the entry should be stored at
+     */
+    private int siftDown(int pos, long deadline, long seq)
+    {
+        int half = m_count >>> 1;
+
+        while(pos < half)
+        {
+            int child = (pos << 1) + 1;
+            int right = child + 1;
+
+            if(right < m_count &&
+               before(m_deadlines[right], m_sequences[right], child))
+                child = right;
+
+            if(!before(m_deadlines[child], m_sequences[child],
+                       deadline, seq))
+                break;
+
+            move(child, pos);
+            pos = child;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Check if an entry sorts before the entry at the given index.
+     *
+     * @param deadline The deadline of the entry
+     * @param seq The sequence number of the entry
+     * @param index The heap index to compare against
+     * @return true if the entry comes first
+     */
+    private boolean before(long deadline, long seq, int index)
+    {
+        return before(deadline, seq, m_deadlines[index], m_sequences[index]);
+    }
+
+    /**
+     * Check if one entry sorts before another.
+     *
+     * @param deadline1 The deadline of the first entry
+     * @param seq1 The sequence number of the first entry
+     * @param deadline2 The deadline of the second entry
+     * @param seq2 The sequence number of the second entry
+     * @return true if the first entry comes first
+     */
+    private static boolean before(long deadline1, long seq1,
+                                  long deadline2, long seq2)
+    {
+        long diff = deadline1 - deadline2;
+        return (diff < 0 || (diff == 0 && seq1 < seq2));
+    }
+
+    /**
+     * Copy the entry at one heap index to another.
+     *
+     * @param from The index to copy from
+     * @param to The index to copy to
+     */
+    private void move(int from, int to)
+    {
+        m_items[to] = m_items[from];
+        m_deadlines[to] = m_deadlines[from];
+        m_sequences[to] = m_sequences[from];
+    }
+
+    /**
+     * Empty the heap. Must be called while holding the lock.
+     */
+    private void removeAll()
+    {
+        for(int i = 0; i < m_count; i++)
+            m_items[i] = null;
+
+        m_count = 0;
+    }
+
+    /**
+     * Double the size of the heap arrays.
+     */
+    private void grow()
+    {
+        int new_size = m_items.length << 1;
+
+        Object[] items = new Object[new_size];
+        long[] deadlines = new long[new_size];
+        long[] sequences = new long[new_size];
+
+        System.arraycopy(m_items, 0, items, 0, m_count);
+        System.arraycopy(m_deadlines, 0, deadlines, 0, m_count);
+        System.arraycopy(m_sequences, 0, sequences, 0, m_count);
+
+        m_items = items;
+        m_deadlines = deadlines;
+        m_sequences = sequences;
+    }
+}
@@ -20,21 +20,86 @@ package vlc.util;
 /**
  * A hash map that uses primitive ints for the key rather than objects.
  * <P>
+ * The map uses open addressing. Keys and values are held in two parallel
+ * arrays and a collision is resolved by trying the following slots in
+ * turn (linear probing), so no object is created per mapping and the only
+ * cost of each entry is its two array slots. As values may not be null,
+ * a null value marks an empty slot. Removal shifts the following entries
+ * of the probe sequence back rather than leaving a marker behind, so
+ * lookups never have to step over deleted entries.
+ * <P>
+ * The table size is always a power of two, so a slot is found with a mask
+ * rather than a division. Keys are first scrambled with the MurmurHash3
+ * finalizer, so that sequential keys, or keys that are all multiples of a
+ * power of two, still spread evenly over the table instead of piling up
+ * in a few runs.
+ * <P>
+ * Normally the whole table is rehashed at once when it fills up, which
+ * stalls the put() that triggers it for time proportional to the size of
+ * the map. A map may instead be created to rehash incrementally. Then a
+ * full table is kept aside while a table twice its size takes new
+ * entries, and every later put() or remove() moves a small, fixed number
+ * of slots across, so no single call does more than a bounded amount of
+ * work. Until the old table has been emptied, lookups that miss in the
+ * new table also look in the old one. Slots that have been moved are
+ * marked rather than emptied, so that the probe sequences of the entries
+ * still to move stay intact.
+ * <P>
  * This softare is released under the
  * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
  * <P>
  *
  * @see java.util.LinkedList
  * @author  Justin Couch
- * @version 1.0 (5 June 2000)
+ * @version 1.1
  */
 public class IntHashMap
 {
     /**
-     * The hash table data.
+     * The largest table size. Tables never grow beyond this.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The number of old table slots moved across per operation during an
+     * incremental rehash.
      */
-    private transient Entry table[];
+    private static final int MIGRATE_STEP = 64;
+
+    /**
+     * Marks a slot of the old table whose entry has been moved to the new
+     * table or removed.
+     */
+    private static final Object MOVED = new Object();
+
+    /**
+     * The keys of the hash table. Only meaningful where the matching
+     * value is not null.
+     */
+    private transient int keys[];
+
+    /**
+     * The values of the hash table. A null value marks an empty slot.
+     */
+    private transient Object values[];
     
+    /**
+     * The keys of the table being emptied by an incremental rehash.
+     */
+    private transient int oldKeys[];
+
+    /**
+     * The values of the table being emptied by an incremental rehash, or
+     * null if no rehash is under way. MOVED marks a slot that has been
+     * dealt with.
+     */
+    private transient Object oldValues[];
+
+    /**
+     * The next slot of the old table to move across.
+     */
+    private transient int migrateIndex;
+
     /**
      * The total number of entries in the hash table.
      */
@@ -42,7 +107,8 @@ public class IntHashMap
     
     /**
      * The table is rehashed when its size exceeds this threshold.  (The
-     * value of this field is (int)(capacity * loadFactor).)
+     * value of this field is (int)(capacity * loadFactor), but always
+     * leaves at least one slot empty.)
      *
      * @serial
      */
@@ -54,38 +120,19 @@ public class IntHashMap
      * @serial
      */
     private float loadFactor;
-    
+
     /**
-     * Innerclass that acts as a datastructure to create a new entry in the
-     * table. 
+     * Whether the table is rehashed a few slots at a time rather than all
+     * at once.
+     *
+     * @serial
      */
-    private static class Entry 
-    {
-        int hash;
-        int key;
-        Object value;
-        Entry next;
-    
-        /**
-         * Create a new entry with the given values.
-         *
-         * @param hash The code used to hash the object with
-         * @param key The key used to enter this in the table
-         * @param value The value for this key
-         * @param next A reference to the next entry in the table
-         */
-        protected Entry(int hash, int key, Object value, Entry next) 
-        {
-            this.hash = hash;
-            this.key = key;
-            this.value = value;
-            this.next = next;
-        }
-    }
+    private boolean incremental;
     
     /**
      * Constructs a new, empty hashtable with a default capacity and load
-     * factor, which is <tt>20</tt> and <tt>0.75</tt> respectively. 
+     * factor, which is <tt>20</tt> and <tt>0.75</tt> respectively. The
+     * capacity is rounded up to a power of two.
      */
     public IntHashMap() 
     {
@@ -107,7 +154,9 @@ public class IntHashMap
     
     /**
      * Constructs a new, empty hashtable with the specified initial 
-     * capacity and the specified load factor.
+     * capacity and the specified load factor. The capacity is rounded up
+     * to a power of two. As every entry takes a slot of its own, a load
+     * factor of one or more still leaves a slot free.
      *
      * @param initialCapacity the initial capacity of the hashtable.
      * @param loadFactor the load factor of the hashtable.
@@ -115,6 +164,24 @@ public class IntHashMap
      *             than zero, or if the load factor is nonpositive.
      */
     public IntHashMap(int initialCapacity, float loadFactor) 
+    {
+        this(initialCapacity, loadFactor, false);
+    }
+
+    /**
+     * Constructs a new, empty hashtable with the specified initial 
+     * capacity and load factor, that optionally rehashes incrementally.
+     *
+     * @param initialCapacity the initial capacity of the hashtable.
+     * @param loadFactor the load factor of the hashtable.
+     * @param incremental <code>true</code> to spread rehashing over later
+     *             operations rather than doing it all at once.
+     * @throws IllegalArgumentException  if the initial capacity is less
+     *             than zero, or if the load factor is nonpositive.
+     */
+    public IntHashMap(int initialCapacity,
+                      float loadFactor,
+                      boolean incremental) 
     {
         if (initialCapacity < 0)
             throw new IllegalArgumentException("Illegal Capacity: "+
@@ -122,12 +189,15 @@ public class IntHashMap
         if (loadFactor <= 0)
             throw new IllegalArgumentException("Illegal Load: "+loadFactor);
         
-        if (initialCapacity == 0)
-            initialCapacity = 1;
+        int capacity = 2;
+        while (capacity < initialCapacity && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
 
         this.loadFactor = loadFactor;
-        table = new Entry[initialCapacity];
-        threshold = (int)(initialCapacity * loadFactor);
+        this.incremental = incremental;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = thresholdFor(capacity);
     }
     
     /**
@@ -176,12 +246,22 @@ public class IntHashMap
             throw new NullPointerException();
         }
         
-        Entry tab[] = table;
-        for (int i = tab.length ; i-- > 0 ;) 
+        Object vals[] = values;
+        for (int i = vals.length ; i-- > 0 ;) 
+        {
+            if (vals[i] != null && vals[i].equals(value)) 
+            {
+                return true;
+            }
+        }
+
+        vals = oldValues;
+        if (vals != null) 
         {
-            for (Entry e = tab[i] ; e != null ; e = e.next) 
+            for (int i = vals.length ; i-- > 0 ;) 
             {
-                if (e.value.equals(value)) 
+                if (vals[i] != null && vals[i] != MOVED &&
+                    vals[i].equals(value)) 
                 {
                     return true;
                 }
@@ -216,17 +296,8 @@ public class IntHashMap
      */
     public boolean containsKey(int key) 
     {
-        Entry tab[] = table;
-        int hash = key;
-        int index = (hash & 0x7FFFFFFF) % tab.length;
-        for (Entry e = tab[index] ; e != null ; e = e.next) 
-        {
-            if (e.hash == hash) 
-            {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(key) >= 0 ||
+               (oldValues != null && oldIndexOf(key) >= 0);
     }
     
     /**
@@ -240,15 +311,27 @@ public class IntHashMap
      */
     public Object get(int key) 
     {
-        Entry tab[] = table;
-        int hash = key;
-        int index = (hash & 0x7FFFFFFF) % tab.length;
-        for (Entry e = tab[index] ; e != null ; e = e.next) 
+        int tab[] = keys;
+        Object vals[] = values;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+        Object v;
+
+        while ((v = vals[index]) != null) 
         {
-            if (e.hash == hash) 
+            if (tab[index] == key) 
             {
-                return e.value;
+                return v;
             }
+
+            index = (index + 1) & mask;
+        }
+
+        if (oldValues != null) 
+        {
+            index = oldIndexOf(key);
+            if (index >= 0)
+                return oldValues[index];
         }
         return null;
     }
@@ -258,31 +341,19 @@ public class IntHashMap
      * hashtable, in order to accommodate and access its entries more 
      * efficiently.  This method is called automatically when the 
      * number of keys in the hashtable exceeds this hashtable's capacity 
-     * and load factor. 
+     * and load factor, unless the map rehashes incrementally. Any
+     * incremental rehash under way is finished first.
+     *
+     * @throws IllegalStateException if the table is already at its
+     *    maximum capacity
      */
     protected void rehash() 
     {
-        int oldCapacity = table.length;
-        Entry oldMap[] = table;
-        
-        int newCapacity = oldCapacity * 2 + 1;
-        Entry newMap[] = new Entry[newCapacity];
-        
-        threshold = (int)(newCapacity * loadFactor);
-        table = newMap;
-        
-        for (int i = oldCapacity ; i-- > 0 ;) 
-        {
-            for (Entry old = oldMap[i] ; old != null ; ) 
-            {
-                Entry e = old;
-                old = old.next;
-                
-                int index = (e.hash & 0x7FFFFFFF) % newCapacity;
-                e.next = newMap[index];
-                newMap[index] = e;
-            }
-        }
+        if (oldValues != null)
+            migrate(Integer.MAX_VALUE);
+
+        grow();
+        migrate(Integer.MAX_VALUE);
     }
     
     /**
@@ -299,6 +370,8 @@ public class IntHashMap
      *             or <code>null</code> if it did not have one.
      * @throws  NullPointerException  if the key or value is
      *               <code>null</code>.
+     * @throws  IllegalStateException  if a new key would take the map
+     *               past its load factor at its maximum capacity.
      * @see     Object#equals(Object)
      * @see     #get(int)
      */
@@ -311,15 +384,33 @@ public class IntHashMap
         }
         
         // Makes sure the key is not already in the hashtable.
-        Entry tab[] = table;
-        int hash = key;
-        int index = (hash & 0x7FFFFFFF) % tab.length;
-        for (Entry e = tab[index] ; e != null ; e = e.next) 
+        int tab[] = keys;
+        Object vals[] = values;
+        int hash = PrimitiveHash.hash(key);
+        int mask = tab.length - 1;
+        int index = hash & mask;
+
+        while (vals[index] != null) 
         {
-            if (e.hash == hash) 
+            if (tab[index] == key) 
             {
-                Object old = e.value;
-                e.value = value;
+                Object old = vals[index];
+                vals[index] = value;
+                return old;
+            }
+
+            index = (index + 1) & mask;
+        }
+        
+        if (oldValues != null) 
+        {
+            int oldIndex = oldIndexOf(key);
+            if (oldIndex >= 0) 
+            {
+                // Still waiting to move, so update it where it is
+                Object old = oldValues[oldIndex];
+                oldValues[oldIndex] = value;
+                migrate(MIGRATE_STEP);
                 return old;
             }
         }
@@ -327,16 +418,36 @@ public class IntHashMap
         if (count >= threshold) 
         {
             // Rehash the table if the threshold is exceeded
-            rehash();
+            if (incremental) 
+            {
+                if (oldValues != null)
+                    migrate(Integer.MAX_VALUE);
+
+                grow();
+            }
+            else 
+            {
+                rehash();
+            }
             
-            tab = table;
-            index = (hash & 0x7FFFFFFF) % tab.length;
+            tab = keys;
+            vals = values;
+            mask = tab.length - 1;
+            index = hash & mask;
+
+            while (vals[index] != null) 
+            {
+                index = (index + 1) & mask;
+            }
         } 
         
-        // Creates the new entry.
-        Entry e = new Entry(hash, key, value, tab[index]);
-        tab[index] = e;
+        // Fills the empty slot at the end of the probe sequence.
+        tab[index] = key;
+        vals[index] = value;
         count++;
+
+        if (oldValues != null)
+            migrate(MIGRATE_STEP);
         return null;
     }
     
@@ -350,27 +461,58 @@ public class IntHashMap
      */
     public Object remove(int key) 
     {
-        Entry tab[] = table;
-        int hash = key;
-        int index = (hash & 0x7FFFFFFF) % tab.length;
-        for (Entry e = tab[index], prev = null ; e != null ; prev = e, e = e.next) 
+        int index = indexOf(key);
+        if (index < 0) 
         {
-            if (e.hash == hash) 
+            if (oldValues == null)
+                return null;
+
+            index = oldIndexOf(key);
+            if (index < 0)
+                return null;
+
+            Object oldValue = oldValues[index];
+            oldValues[index] = MOVED;
+            count--;
+            migrate(MIGRATE_STEP);
+            return oldValue;
+        }
+
+        int tab[] = keys;
+        Object vals[] = values;
+        int mask = tab.length - 1;
+        Object oldValue = vals[index];
+        vals[index] = null;
+        count--;
+
+        // Shift back any following entries that can no longer be reached
+        // across the gap just left.
+        int gap = index;
+        int next = index;
+        while (true) 
+        {
+            next = (next + 1) & mask;
+
+            if (vals[next] == null)
+                break;
+
+            int home = PrimitiveHash.hash(tab[next]) & mask;
+
+            // The entry has to move if the gap is no further from its home
+            // slot than where it is now
+            if (((next - home) & mask) >= ((next - gap) & mask)) 
             {
-                if (prev != null) 
-                {
-                    prev.next = e.next;
-                } else 
-                {
-                    tab[index] = e.next;
-                }
-                count--;
-                Object oldValue = e.value;
-                e.value = null;
-                return oldValue;
+                tab[gap] = tab[next];
+                vals[gap] = vals[next];
+                vals[next] = null;
+                gap = next;
             }
         }
-        return null;
+
+        if (oldValues != null)
+            migrate(MIGRATE_STEP);
+
+        return oldValue;
     }
     
     /**
@@ -378,9 +520,151 @@ public class IntHashMap
      */
     public synchronized void clear() 
     {
-        Entry tab[] = table;
-        for (int index = tab.length; --index >= 0; )
-            tab[index] = null;
+        Object vals[] = values;
+        for (int index = vals.length; --index >= 0; )
+            vals[index] = null;
+        oldKeys = null;
+        oldValues = null;
         count = 0;
     }
+
+    /**
+     * Find the slot holding the given key.
+     *
+     * @param key The key to look for
+     * @return The index of the slot, or -1 if the key is not in the table
+     */
+    private int indexOf(int key) 
+    {
+        int tab[] = keys;
+        Object vals[] = values;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+
+        while (vals[index] != null) 
+        {
+            if (tab[index] == key) 
+            {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the slot of the old table holding the given key, during an
+     * incremental rehash.
+     *
+     * @param key The key to look for
+     * @return The index of the slot, or -1 if the key is not waiting to
+     *    be moved
+     */
+    private int oldIndexOf(int key) 
+    {
+        int tab[] = oldKeys;
+        Object vals[] = oldValues;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+        Object v;
+
+        while ((v = vals[index]) != null) 
+        {
+            if (tab[index] == key)
+            {
+                // A moved slot means the key is in the new table, if at all
+                return (v == MOVED) ? -1 : index;
+            }
+
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Replace the table with an empty one twice the size, keeping the old
+     * one aside for migrate() to empty.
+     *
+     * @throws IllegalStateException if the table is already as large as
+     *    it can be
+     */
+    private void grow() 
+    {
+        int oldCapacity = keys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY) 
+            throw new IllegalStateException("Map is full");
+        
+        int newCapacity = oldCapacity * 2;
+
+        oldKeys = keys;
+        oldValues = values;
+        migrateIndex = 0;
+
+        keys = new int[newCapacity];
+        values = new Object[newCapacity];
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * Move entries from the old table to the new one, finishing the
+     * rehash once the old table has been gone through.
+     *
+     * @param slots The most old table slots to deal with
+     */
+    private void migrate(int slots) 
+    {
+        int fromKeys[] = oldKeys;
+        Object fromValues[] = oldValues;
+        int end = fromValues.length;
+
+        if (slots < end - migrateIndex)
+            end = migrateIndex + slots;
+
+        int tab[] = keys;
+        Object vals[] = values;
+        int mask = tab.length - 1;
+
+        for (int i = migrateIndex; i < end; i++) 
+        {
+            Object v = fromValues[i];
+            if (v == null || v == MOVED)
+                continue;
+
+            int index = PrimitiveHash.hash(fromKeys[i]) & mask;
+            while (vals[index] != null) 
+            {
+                index = (index + 1) & mask;
+            }
+
+            tab[index] = fromKeys[i];
+            vals[index] = v;
+            fromValues[i] = MOVED;
+        }
+
+        migrateIndex = end;
+
+        if (end == fromValues.length) 
+        {
+            oldKeys = null;
+            oldValues = null;
+        }
+    }
+
+    /**
+     * Work out the rehash threshold for a table of the given size, making
+     * sure that at least one slot is always left empty to end a probe.
+     *
+     * @param capacity The number of slots in the table
+     * @return The number of entries allowed before rehashing
+     */
+    private int thresholdFor(int capacity) 
+    {
+        int limit = (int)(capacity * loadFactor);
+        if (limit >= capacity)
+            limit = capacity - 1;
+
+        return limit;
+    }
 }
@@ -0,0 +1,240 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 'First In First Out' (FIFO) queue of int values. Backend is implemented
+ * with a circular int array whose size is always a power of two.
+ * <P>
+ *
+ * This is the same as {@link Queue} but holds the values directly rather
+ * than as Integer objects, so queueing a value never allocates once the
+ * array has reached its working size.
+ * <P>
+ *
+ * This simple queue does not block if you request a value. As there is no
+ * null int to return from an empty queue, getNextInt() and peekNextInt()
+ * throw an exception instead, so check hasNext() first.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.Queue
+ * @author  Justin Couch
+ * @version 1.0
+ */
+public class IntQueue
+{
+    /** The default number of slots in a newly created queue */
+    private static final int DEFAULT_SIZE = 16;
+
+    /** circular array of queued values. Length is always a power of two */
+    private int[] m_elements;
+
+    /** Index of the value at the front of the queue */
+    private int m_head;
+
+    /** The number of values currently in the queue */
+    private int m_count;
+
+    /**
+     * Constructor. Create an empty queue.
+     */
+    public IntQueue()
+    {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * values before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of values to make room for
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public IntQueue(int initialSize)
+    {
+        if(initialSize <= 0)
+            throw new IllegalArgumentException("Illegal size: " +
+                                               initialSize);
+
+        int size = 1;
+        while(size < initialSize)
+            size <<= 1;
+
+        m_elements = new int[size];
+    }
+
+    /**
+     * Add a value to the end of the queue.
+     *
+     * @param value The value to add
+     */
+    public void addInt(int value)
+    {
+        if(m_count == m_elements.length)
+            grow(m_count + 1);
+
+        m_elements[(m_head + m_count) & (m_elements.length - 1)] = value;
+        m_count++;
+    }
+
+    /**
+     * Add all of the values of the array to the end of the queue, in order.
+     * The storage is resized at most once for the whole batch.
+     *
+     * @param values The values to add
+     */
+    public void addAll(int[] values)
+    {
+        int num = values.length;
+        if(m_count + num > m_elements.length)
+            grow(m_count + num);
+
+        int tail = (m_head + m_count) & (m_elements.length - 1);
+        int first = m_elements.length - tail;
+        if(first > num)
+            first = num;
+
+        System.arraycopy(values, 0, m_elements, tail, first);
+        System.arraycopy(values, first, m_elements, 0, num - first);
+        m_count += num;
+    }
+
+    /**
+     * Return the value at the front and remove it from the queue.
+     *
+     * @return value at the front of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public int getNextInt()
+    {
+        if(m_count == 0)
+            throw new NoSuchElementException("Queue is empty");
+
+        int value = m_elements[m_head];
+        m_head = (m_head + 1) & (m_elements.length - 1);
+        m_count--;
+
+        return value;
+    }
+
+    /**
+     * Remove up to the given number of values from the front of the queue
+     * and copy them, in order, into the given array starting at index 0.
+     * No more than the length of the array will be removed.
+     *
+     * @param max The maximum number of values to remove
+     * @param values The array to copy the values to
+     * @return The number of values removed, 0 if the queue was empty
+     */
+    public int getNext(int max, int[] values)
+    {
+        int num = max;
+        if(num > values.length)
+            num = values.length;
+        if(num > m_count)
+            num = m_count;
+
+        if(num <= 0)
+            return 0;
+
+        int first = m_elements.length - m_head;
+        if(first > num)
+            first = num;
+
+        System.arraycopy(m_elements, m_head, values, 0, first);
+        System.arraycopy(m_elements, 0, values, first, num - first);
+
+        m_head = (m_head + num) & (m_elements.length - 1);
+        m_count -= num;
+
+        return num;
+    }
+
+    /**
+     * Return the value at the front of the queue.
+     *
+     * @return value at the front of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public int peekNextInt()
+    {
+        if(m_count == 0)
+            throw new NoSuchElementException("Queue is empty");
+
+        return m_elements[m_head];
+    }
+
+    /**
+     * Check if queue has more values.
+     *
+     * @return true if queue has more values.
+     */
+    public boolean hasNext()
+    {
+        return (m_count > 0);
+    }
+
+    /**
+     * Return the number of values in the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * Remove all values in the queue.
+     */
+    public void clear()
+    {
+        m_head = 0;
+        m_count = 0;
+    }
+
+    /**
+     * Double the size of the internal storage until it can hold the given
+     * number of values, unwrapping the current contents so that the front of
+     * the queue is at index zero.
+     *
+     * @param minSize The number of values the storage must be able to hold
+     */
+    private void grow(int minSize)
+    {
+        int old_size = m_elements.length;
+        int new_size = old_size << 1;
+        while(new_size < minSize)
+            new_size <<= 1;
+
+        int[] new_elements = new int[new_size];
+
+        int front = old_size - m_head;
+        System.arraycopy(m_elements, m_head, new_elements, 0, front);
+        System.arraycopy(m_elements, 0, new_elements, front, m_head);
+
+        m_elements = new_elements;
+        m_head = 0;
+    }
+}
@@ -0,0 +1,453 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking 'First In First Out' (FIFO) queue that does not take a lock to
+ * add or remove items.
+ * <P>
+ *
+ * Offers the same methods as the {@link BlockingQueue}, but any number of
+ * producer and consumer threads can work on the queue at the same time
+ * without contending for a single monitor. The items are held in a fixed
+ * size circular array. Each slot of the array carries a sequence number
+ * that tells producers and consumers whether the slot is free or filled,
+ * and the head and tail positions are claimed with compare-and-set.
+ * <P>
+ *
+ * Threads only fall back to a lock when they have to wait: a consumer when
+ * the queue is empty, or a producer when the queue is full. While nobody is
+ * waiting, adding an item never touches the lock.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class LockFreeBlockingQueue
+{
+    /** The default number of slots in the queue */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /** Number of times to retry before going to sleep on an empty queue */
+    private static final int SPIN_TRIES = 64;
+
+    /** The slots holding the queued items */
+    private final Object[] m_elements;
+
+    /** Sequence number of each slot, used to hand it between threads */
+    private final AtomicLongArray m_sequences;
+
+    /** Mask to convert a position to a slot index */
+    private final int m_mask;
+
+    /** The position that the next consumer will take from */
+    private final AtomicLong m_head;
+
+    /** The position that the next producer will write to */
+    private final AtomicLong m_tail;
+
+    /** Lock used only when threads need to wait */
+    private final ReentrantLock m_lock;
+
+    /** Condition consumers wait on when the queue is empty */
+    private final Condition m_notEmpty;
+
+    /** Condition producers wait on when the queue is full */
+    private final Condition m_notFull;
+
+    /** The number of consumers asleep or about to sleep on m_notEmpty */
+    private final AtomicInteger m_waitingConsumers;
+
+    /** The number of producers asleep or about to sleep on m_notFull */
+    private final AtomicInteger m_waitingProducers;
+
+    /** Incremented for every purge so that waiting consumers can leave */
+    private volatile int m_purgeCount;
+
+    /**
+     * Constructor. Create a queue with the default capacity.
+     */
+    public LockFreeBlockingQueue()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * items. The capacity is rounded up to the next power of two.
+     *
+     * @param capacity The number of items that the queue can hold
+     * @throws IllegalArgumentException if the capacity is less than two
+     */
+    public LockFreeBlockingQueue(int capacity)
+    {
+        if(capacity < 2)
+            throw new IllegalArgumentException("Illegal capacity: " +
+                                               capacity);
+
+        int size = 2;
+        while(size < capacity)
+            size <<= 1;
+
+        m_elements = new Object[size];
+        m_sequences = new AtomicLongArray(size);
+        m_mask = size - 1;
+
+        for(int i = 0; i < size; i++)
+            m_sequences.set(i, i);
+
+        m_head = new AtomicLong();
+        m_tail = new AtomicLong();
+
+        m_lock = new ReentrantLock();
+        m_notEmpty = m_lock.newCondition();
+        m_notFull = m_lock.newCondition();
+        m_waitingConsumers = new AtomicInteger();
+        m_waitingProducers = new AtomicInteger();
+    }
+
+    /**
+     * Add an object to the end of the queue. If the queue is full, this
+     * blocks until a consumer has made room.
+     *
+     * @param o Object to add.
+     * @throws NullPointerException if the object is null
+     */
+    public void add(Object o)
+    {
+        if(o == null)
+            throw new NullPointerException("Null items are not allowed");
+
+        if(!offer(o))
+        {
+            m_lock.lock();
+            try
+            {
+                m_waitingProducers.incrementAndGet();
+                try
+                {
+                    while(!offer(o))
+                        m_notFull.awaitUninterruptibly();
+                }
+                finally
+                {
+                    m_waitingProducers.decrementAndGet();
+                }
+            }
+            finally
+            {
+                m_lock.unlock();
+            }
+        }
+
+        if(m_waitingConsumers.get() > 0)
+            signal(m_notEmpty);
+    }
+
+    /**
+     * Return the next element from the front of the queue, and remove it
+     * from the queue. Under normal circumstances this method will always
+     * return an object, blocking if it has to until something is available.
+     * However, sometimes the queue needs to close so we unblock the queue
+     * are return null instead.
+     *
+     * @return element at the front of the queue, will block until
+     * queue is not empty.
+     */
+    public Object getNext()
+    {
+        // Read before anything else, so a purge while spinning counts too
+        int purge = m_purgeCount;
+        Object o = take();
+
+        for(int i = 0; o == null && i < SPIN_TRIES; i++)
+        {
+            if(purge != m_purgeCount)
+                return null;
+
+            Thread.onSpinWait();
+            o = take();
+        }
+
+        if(o == null)
+        {
+            m_lock.lock();
+            try
+            {
+                m_waitingConsumers.incrementAndGet();
+                try
+                {
+                    while((o = take()) == null && purge == m_purgeCount)
+                        m_notEmpty.awaitUninterruptibly();
+                }
+                finally
+                {
+                    m_waitingConsumers.decrementAndGet();
+                }
+            }
+            finally
+            {
+                m_lock.unlock();
+            }
+        }
+
+        return o;
+    }
+
+    /**
+     * Remove a batch of elements from the front of the queue and add them to
+     * the given collection. Blocks until at least one element is available,
+     * then takes whatever else is present, up to the given maximum. If the
+     * queue is purged while waiting this returns 0.
+     *
+     * @param max The maximum number of elements to remove
+     * @param sink The collection to add the elements to
+     * @return The number of elements removed
+     */
+    public int getNext(int max, Collection sink)
+    {
+        if(max <= 0)
+            return 0;
+
+        Object o = getNext();
+        if(o == null)
+            return 0;
+
+        sink.add(o);
+        int num = 1;
+
+        while(num < max && (o = take()) != null)
+        {
+            sink.add(o);
+            num++;
+        }
+
+        return num;
+    }
+
+    /**
+     * Remove a batch of elements from the front of the queue and copy them
+     * into the given array starting at index 0. Blocks until at least one
+     * element is available, then takes whatever else is present, up to the
+     * given maximum and the length of the array. If the queue is purged
+     * while waiting this returns 0.
+     *
+     * @param max The maximum number of elements to remove
+     * @param items The array to copy the elements to
+     * @return The number of elements removed
+     */
+    public int getNext(int max, Object[] items)
+    {
+        if(max > items.length)
+            max = items.length;
+
+        if(max <= 0)
+            return 0;
+
+        Object o = getNext();
+        if(o == null)
+            return 0;
+
+        items[0] = o;
+        int num = 1;
+
+        while(num < max && (o = take()) != null)
+            items[num++] = o;
+
+        return num;
+    }
+
+    /**
+     * Get the next element from the front of the queue. With other threads
+     * working on the queue, the element may already be gone by the time the
+     * caller looks at it.
+     *
+     * @return element at the front of the queue, null if empty.
+     */
+    public Object peekNext()
+    {
+        long pos = m_head.get();
+        int index = (int)pos & m_mask;
+
+        if(m_sequences.get(index) != pos + 1)
+            return null;
+
+        return m_elements[index];
+    }
+
+    /**
+     * Check if queue has more objects.
+     *
+     * @return true if queue has more objects.
+     */
+    public boolean hasNext()
+    {
+        long pos = m_head.get();
+        return (m_sequences.get((int)pos & m_mask) == pos + 1);
+    }
+
+    /**
+     * Return the size of the queue. This is only a snapshot while other
+     * threads are working on the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        long size = m_tail.get() - m_head.get();
+
+        if(size < 0)
+            size = 0;
+        else if(size > m_elements.length)
+            size = m_elements.length;
+
+        return (int)size;
+    }
+
+    /**
+     * Remove all elements from queue. Also unblock those who are waiting for
+     * items in the queue. They leave the getNext() method with null.
+     */
+    public void purge()
+    {
+        clear();
+
+        m_lock.lock();
+        try
+        {
+            m_purgeCount++;
+            m_notEmpty.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the queue of items. If there are users of the class that are
+     * blocked while waiting for elements in the queue, they remain so.
+     */
+    public void clear()
+    {
+        while(take() != null)
+            ;
+    }
+
+    /**
+     * Attempt to place an item in the next free slot.
+     *
+     * @param o The item to add
+     * @return true if it was added, false if the queue is full
+     */
+    private boolean offer(Object o)
+    {
+        long pos = m_tail.get();
+
+        while(true)
+        {
+            int index = (int)pos & m_mask;
+            long diff = m_sequences.get(index) - pos;
+
+            if(diff == 0)
+            {
+                if(m_tail.compareAndSet(pos, pos + 1))
+                {
+                    m_elements[index] = o;
+                    m_sequences.set(index, pos + 1);
+                    return true;
+                }
+
+                pos = m_tail.get();
+            }
+            else if(diff < 0)
+                return false;
+            else
+                pos = m_tail.get();
+        }
+    }
+
+    /**
+     * Attempt to remove the item at the front of the queue.
+     *
+     * @return The item removed or null if the queue is empty
+     */
+    private Object take()
+    {
+        long pos = m_head.get();
+
+        while(true)
+        {
+            int index = (int)pos & m_mask;
+            long diff = m_sequences.get(index) - (pos + 1);
+
+            if(diff == 0)
+            {
+                if(m_head.compareAndSet(pos, pos + 1))
+                {
+                    Object o = m_elements[index];
+                    m_elements[index] = null;
+                    m_sequences.set(index, pos + m_mask + 1);
+
+                    if(m_waitingProducers.get() > 0)
+                        signal(m_notFull);
+
+                    return o;
+                }
+
+                pos = m_head.get();
+            }
+            else if(diff < 0)
+                return null;
+            else
+                pos = m_head.get();
+        }
+    }
+
+    /**
+     * Wake a single thread waiting on the given condition.
+     *
+     * @param cond The condition to signal
+     */
+    private void signal(Condition cond)
+    {
+        m_lock.lock();
+        try
+        {
+            cond.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking version of the {@link LongQueue}.
+ * <P>
+ *
+ * Can be used concurrently by seperate threads. If there are no values in
+ * the queue, getNextLong() will block until it is not empty. A purge
+ * unblocks the waiting consumers. As there is no null long for them to
+ * return, getNextLong() throws a NoSuchElementException in that case and
+ * the batch getNext() returns 0.
+ *
+ * @see vlc.util.LongQueue
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class LongBlockingQueue extends LongQueue
+{
+    /** Incremented for every purge so that waiting consumers can leave */
+    private int m_purgeCount = 0;
+
+    /** The number of consumers currently waiting for values */
+    private int m_waiting = 0;
+
+    /** Lock guarding all access to the queue */
+    private final ReentrantLock m_lock = new ReentrantLock();
+
+    /** Condition consumers wait on when the queue is empty */
+    private final Condition m_notEmpty = m_lock.newCondition();
+
+    /**
+     * Constructor. Create an empty queue.
+     */
+    public LongBlockingQueue()
+    {
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * values before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of values to make room for
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public LongBlockingQueue(int initialSize)
+    {
+        super(initialSize);
+    }
+
+    /**
+     * Add a value to the end of the queue.
+     *
+     * @param value The value to add
+     */
+    public void addLong(long value)
+    {
+        m_lock.lock();
+        try
+        {
+            super.addLong(value);
+            m_notEmpty.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Add all of the values of the array to the end of the queue. Waiting
+     * consumers are woken once, with no more of them woken than there are
+     * new values.
+     *
+     * @param values The values to add
+     */
+    public void addAll(long[] values)
+    {
+        m_lock.lock();
+        try
+        {
+            super.addAll(values);
+
+            int num = Math.min(values.length, m_waiting);
+            for(int i = 0; i < num; i++)
+                m_notEmpty.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value at the front of the queue, and remove it from the
+     * queue, blocking if it has to until one is available.
+     *
+     * @return value at the front of the queue
+     * @throws NoSuchElementException if the queue was purged while waiting
+     */
+    public long getNextLong()
+    {
+        m_lock.lock();
+        try
+        {
+            waitForValues(-1);
+
+            return super.getNextLong();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a batch of values from the front of the queue and copy them
+     * into the given array starting at index 0. Blocks until at least one
+     * value is available, then moves as many as are present, up to the
+     * given maximum and the length of the array. If the queue is purged
+     * while waiting this returns 0.
+     *
+     * @param max The maximum number of values to remove
+     * @param values The array to copy the values to
+     * @return The number of values removed
+     */
+    public int getNext(int max, long[] values)
+    {
+        if(max <= 0 || values.length == 0)
+            return 0;
+
+        m_lock.lock();
+        try
+        {
+            waitForValues(-1);
+
+            return super.getNext(max, values);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a batch of values from the front of the queue and copy them
+     * into the given array starting at index 0, waiting no longer than the
+     * given time for the first one.
+     *
+     * @param max The maximum number of values to remove
+     * @param values The array to copy the values to
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return The number of values removed, 0 if the timeout expired, the
+     *    queue was purged or the thread was interrupted first. The
+     *    interrupt status is left set
+     */
+    public int getNext(int max, long[] values, long timeout, TimeUnit unit)
+    {
+        if(max <= 0 || values.length == 0)
+            return 0;
+
+        m_lock.lock();
+        try
+        {
+            waitForValues(Math.max(0, unit.toNanos(timeout)));
+
+            return super.getNext(max, values);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the value at the front of the queue.
+     *
+     * @return value at the front of the queue
+     * @throws NoSuchElementException if the queue is empty
+     */
+    public long peekNextLong()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.peekNextLong();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check if queue has more values.
+     *
+     * @return true if queue has more values.
+     */
+    public boolean hasNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.hasNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the size of the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        m_lock.lock();
+        try
+        {
+            return super.size();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all values from queue. Also unblock those who are waiting for
+     * values in the queue.
+     */
+    public void purge()
+    {
+        m_lock.lock();
+        try
+        {
+            super.clear();
+            m_purgeCount++;
+            m_notEmpty.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the queue of values. If there are users of the class that are
+     * blocked while waiting for values in the queue, they remain so.
+     */
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            super.clear();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the queue has a value in it or is purged. Must be called
+     * with the lock held. A timed wait also ends if the thread is
+     * interrupted, leaving the interrupt status set, while an untimed one
+     * carries on.
+     *
+     * @param nanos The maximum time to wait, or negative to wait forever
+     */
+    private void waitForValues(long nanos)
+    {
+        int purge = m_purgeCount;
+        boolean timed = (nanos >= 0);
+
+        m_waiting++;
+        try
+        {
+            while(!super.hasNext() && purge == m_purgeCount)
+            {
+                if(!timed)
+                    m_notEmpty.awaitUninterruptibly();
+                else if(nanos <= 0)
+                    break;
+                else
+                {
+                    try
+                    {
+                        nanos = m_notEmpty.awaitNanos(nanos);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        // Give up as if the time had run out
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            m_waiting--;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * A hash set of primitive long values.
+ * <P>
+ * Generated from make/templates/PrimitiveHashSet.template by
+ * make/Makefile.primitive. Change the template rather than this file.
+ * <P>
+ * The set is laid out the same way as {@link IntHashMap} without the
+ * values. Members are held in an array of a power of two size, found by
+ * linear probing from the slot picked by their mixed hash, and removal
+ * shifts the following members back rather than leaving a marker. As
+ * any long may be a member, the slots in use are marked in an array of
+ * flags. Members are never boxed.
+ * <P>
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.IntHashMap
+ * @author  Justin Couch
+ * @version 1.0
+ */
+public class LongHashSet
+{
+    /**
+     * The largest table size. Tables never grow beyond this.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The members of the set. Only meaningful where the slot is used.
+     */
+    private transient long keys[];
+
+    /**
+     * Marks the slots that hold a member.
+     */
+    private transient boolean used[];
+
+    /**
+     * The total number of members in the set.
+     */
+    private transient int count;
+
+    /**
+     * The table is rehashed when its size exceeds this threshold. (The
+     * value of this field is (int)(capacity * loadFactor), but always
+     * leaves at least one slot empty.)
+     *
+     * @serial
+     */
+    private int threshold;
+
+    /**
+     * The load factor for the set.
+     *
+     * @serial
+     */
+    private float loadFactor;
+
+    /**
+     * Constructs a new, empty set with a default capacity and load
+     * factor, which is <tt>20</tt> and <tt>0.75</tt> respectively. The
+     * capacity is rounded up to a power of two.
+     */
+    public LongHashSet()
+    {
+        this(20, 0.75f);
+    }
+
+    /**
+     * Constructs a new, empty set with the specified initial capacity
+     * and default load factor, which is <tt>0.75</tt>.
+     *
+     * @param  initialCapacity the initial capacity of the set.
+     * @throws IllegalArgumentException if the initial capacity is less
+     *   than zero.
+     */
+    public LongHashSet(int initialCapacity)
+    {
+        this(initialCapacity, 0.75f);
+    }
+
+    /**
+     * Constructs a new, empty set with the specified initial capacity and
+     * the specified load factor. The capacity is rounded up to a power of
+     * two. As every member takes a slot of its own, a load factor of one
+     * or more still leaves a slot free.
+     *
+     * @param initialCapacity the initial capacity of the set.
+     * @param loadFactor the load factor of the set.
+     * @throws IllegalArgumentException  if the initial capacity is less
+     *             than zero, or if the load factor is nonpositive.
+     */
+    public LongHashSet(int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal Capacity: "+
+                                               initialCapacity);
+        if (loadFactor <= 0)
+            throw new IllegalArgumentException("Illegal Load: "+loadFactor);
+
+        int capacity = 2;
+        while (capacity < initialCapacity && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+
+        this.loadFactor = loadFactor;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        threshold = thresholdFor(capacity);
+    }
+
+    /**
+     * Returns the number of members of this set.
+     *
+     * @return  the number of members of this set.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Tests if this set has no members.
+     *
+     * @return  <code>true</code> if this set has no members;
+     *          <code>false</code> otherwise.
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * Tests if the specified value is a member of this set.
+     *
+     * @param   key   possible member.
+     * @return  <code>true</code> if and only if the value is a member of
+     *          this set; <code>false</code> otherwise.
+     */
+    public boolean contains(long key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Adds the specified value to this set, if it is not already a member.
+     *
+     * @param   key   the value to add.
+     * @return  <code>true</code> if the value was added;
+     *          <code>false</code> if it was already a member.
+     * @throws  IllegalStateException  if a new member would take the set
+     *          past its load factor at its maximum capacity.
+     */
+    public boolean add(long key)
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        int hash = PrimitiveHash.hash(key);
+        int mask = tab.length - 1;
+        int index = hash & mask;
+
+        while (flags[index])
+        {
+            if (tab[index] == key)
+            {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        if (count >= threshold)
+        {
+            // Rehash the table if the threshold is exceeded
+            rehash();
+
+            tab = keys;
+            flags = used;
+            mask = tab.length - 1;
+            index = hash & mask;
+
+            while (flags[index])
+            {
+                index = (index + 1) & mask;
+            }
+        }
+
+        tab[index] = key;
+        flags[index] = true;
+        count++;
+        return true;
+    }
+
+    /**
+     * Removes the specified value from this set. This method does nothing
+     * if the value is not a member.
+     *
+     * @param   key   the value that needs to be removed.
+     * @return  <code>true</code> if the value was a member;
+     *          <code>false</code> otherwise.
+     */
+    public boolean remove(long key)
+    {
+        int index = indexOf(key);
+        if (index < 0)
+            return false;
+
+        long tab[] = keys;
+        boolean flags[] = used;
+        int mask = tab.length - 1;
+        count--;
+
+        // Shift back any following members that can no longer be reached
+        // across the gap just left.
+        int gap = index;
+        int next = index;
+        while (true)
+        {
+            next = (next + 1) & mask;
+
+            if (!flags[next])
+                break;
+
+            int home = PrimitiveHash.hash(tab[next]) & mask;
+
+            // The member has to move if the gap is no further from its
+            // home slot than where it is now
+            if (((next - home) & mask) >= ((next - gap) & mask))
+            {
+                tab[gap] = tab[next];
+                gap = next;
+            }
+        }
+
+        flags[gap] = false;
+        return true;
+    }
+
+    /**
+     * Clears this set so that it has no members.
+     */
+    public void clear()
+    {
+        boolean flags[] = used;
+        for (int index = flags.length; --index >= 0; )
+            flags[index] = false;
+        count = 0;
+    }
+
+    /**
+     * Returns the members of this set, in no particular order.
+     *
+     * @return  a new array holding every member.
+     */
+    public long[] toArray()
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        long ret[] = new long[count];
+        int n = 0;
+
+        for (int i = 0; i < flags.length; i++)
+        {
+            if (flags[i])
+                ret[n++] = tab[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Increases the capacity of and internally reorganizes this set, in
+     * order to accommodate and access its members more efficiently. This
+     * method is called automatically when the number of members exceeds
+     * this set's capacity and load factor.
+     *
+     * @throws IllegalStateException if the table is already at its
+     *    maximum capacity
+     */
+    protected void rehash()
+    {
+        int oldCapacity = keys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY)
+            throw new IllegalStateException("Table is full");
+
+        long oldKeys[] = keys;
+        boolean oldUsed[] = used;
+
+        int newCapacity = oldCapacity * 2;
+        long tab[] = new long[newCapacity];
+        boolean flags[] = new boolean[newCapacity];
+        int mask = newCapacity - 1;
+
+        for (int i = 0; i < oldCapacity; i++)
+        {
+            if (!oldUsed[i])
+                continue;
+
+            int index = PrimitiveHash.hash(oldKeys[i]) & mask;
+            while (flags[index])
+            {
+                index = (index + 1) & mask;
+            }
+
+            tab[index] = oldKeys[i];
+            flags[index] = true;
+        }
+
+        keys = tab;
+        used = flags;
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * Find the slot holding the given member.
+     *
+     * @param key The member to look for
+     * @return The index of the slot, or -1 if it is not in the set
+     */
+    private int indexOf(long key)
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+
+        while (flags[index])
+        {
+            if (tab[index] == key)
+            {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Work out the rehash threshold for a table of the given size, making
+     * sure that at least one slot is always left empty to end a probe.
+     *
+     * @param capacity The number of slots in the table
+     * @return The number of members allowed before rehashing
+     */
+    private int thresholdFor(int capacity)
+    {
+        int limit = (int)(capacity * loadFactor);
+        if (limit >= capacity)
+            limit = capacity - 1;
+
+        return limit;
+    }
+}
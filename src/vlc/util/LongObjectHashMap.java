@@ -0,0 +1,532 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * A hash map from primitive long keys to Object values.
+ * <P>
+ * Generated from make/templates/PrimitiveHashMap.template by
+ * make/Makefile.primitive. Change the template rather than this file.
+ * <P>
+ * The map works the same way as {@link IntHashMap}. Keys and values are
+ * held in parallel arrays of a power of two size, a key is found by
+ * linear probing from the slot picked by its mixed hash, and removal
+ * shifts the following entries back rather than leaving a marker. As
+ * any Object may be stored, the slots in use are marked in an array of
+ * flags. Neither keys nor values are ever boxed.
+ * <P>
+ * When a key is not mapped, get() and remove() return the no-entry value,
+ * which is <code>null</code> unless another is given to the constructor.
+ * Use containsKey() where that can also be a real value.
+ * <P>
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.IntHashMap
+ * @author  Justin Couch
+ * @version 1.0
+ */
+public class LongObjectHashMap
+{
+    /**
+     * The largest table size. Tables never grow beyond this.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /**
+     * The keys of the hash table. Only meaningful where the slot is used.
+     */
+    private transient long keys[];
+
+    /**
+     * The values of the hash table. Only meaningful where the slot is used.
+     */
+    private transient Object values[];
+
+    /**
+     * Marks the slots that hold an entry.
+     */
+    private transient boolean used[];
+
+    /**
+     * The total number of entries in the hash table.
+     */
+    private transient int count;
+
+    /**
+     * The table is rehashed when its size exceeds this threshold. (The
+     * value of this field is (int)(capacity * loadFactor), but always
+     * leaves at least one slot empty.)
+     *
+     * @serial
+     */
+    private int threshold;
+
+    /**
+     * The load factor for the hashtable.
+     *
+     * @serial
+     */
+    private float loadFactor;
+
+    /**
+     * The value returned for keys that are not mapped.
+     *
+     * @serial
+     */
+    private Object noEntryValue;
+
+    /**
+     * Constructs a new, empty hashtable with a default capacity and load
+     * factor, which is <tt>20</tt> and <tt>0.75</tt> respectively. The
+     * capacity is rounded up to a power of two.
+     */
+    public LongObjectHashMap()
+    {
+        this(20, 0.75f);
+    }
+
+    /**
+     * Constructs a new, empty hashtable with the specified initial capacity
+     * and default load factor, which is <tt>0.75</tt>.
+     *
+     * @param  initialCapacity the initial capacity of the hashtable.
+     * @throws IllegalArgumentException if the initial capacity is less
+     *   than zero.
+     */
+    public LongObjectHashMap(int initialCapacity)
+    {
+        this(initialCapacity, 0.75f);
+    }
+
+    /**
+     * Constructs a new, empty hashtable with the specified initial
+     * capacity and the specified load factor, that returns
+     * <code>null</code> for keys that are not mapped.
+     *
+     * @param initialCapacity the initial capacity of the hashtable.
+     * @param loadFactor the load factor of the hashtable.
+     * @throws IllegalArgumentException  if the initial capacity is less
+     *             than zero, or if the load factor is nonpositive.
+     */
+    public LongObjectHashMap(int initialCapacity, float loadFactor)
+    {
+        this(initialCapacity, loadFactor, null);
+    }
+
+    /**
+     * Constructs a new, empty hashtable with the specified initial
+     * capacity, load factor and no-entry value. The capacity is rounded
+     * up to a power of two. As every entry takes a slot of its own, a load
+     * factor of one or more still leaves a slot free.
+     *
+     * @param initialCapacity the initial capacity of the hashtable.
+     * @param loadFactor the load factor of the hashtable.
+     * @param noEntryValue the value returned for keys that are not mapped.
+     * @throws IllegalArgumentException  if the initial capacity is less
+     *             than zero, or if the load factor is nonpositive.
+     */
+    public LongObjectHashMap(int initialCapacity, float loadFactor,
+            Object noEntryValue)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal Capacity: "+
+                                               initialCapacity);
+        if (loadFactor <= 0)
+            throw new IllegalArgumentException("Illegal Load: "+loadFactor);
+
+        int capacity = 2;
+        while (capacity < initialCapacity && capacity < MAXIMUM_CAPACITY)
+            capacity <<= 1;
+
+        this.loadFactor = loadFactor;
+        this.noEntryValue = noEntryValue;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        threshold = thresholdFor(capacity);
+    }
+
+    /**
+     * Returns the number of keys in this hashtable.
+     *
+     * @return  the number of keys in this hashtable.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Tests if this hashtable maps no keys to values.
+     *
+     * @return  <code>true</code> if this hashtable maps no keys to values;
+     *          <code>false</code> otherwise.
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * Returns the value that get() and remove() return for keys that are
+     * not mapped.
+     *
+     * @return  the no-entry value.
+     */
+    public Object getNoEntryValue()
+    {
+        return noEntryValue;
+    }
+
+    /**
+     * Tests if some key maps to the specified value in this hashtable.
+     * This operation is more expensive than the <code>containsKey</code>
+     * method, as it has to look at every slot.
+     *
+     * @param   value   a value to search for.
+     * @return  <code>true</code> if and only if some key maps to the
+     *          <code>value</code> argument in this hashtable.
+     * @see     #containsKey(long)
+     */
+    public boolean containsValue(Object value)
+    {
+        Object vals[] = values;
+        boolean flags[] = used;
+
+        for (int i = vals.length ; i-- > 0 ;)
+        {
+            if (flags[i] &&
+                (value == null ? vals[i] == null : value.equals(vals[i])))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if the specified key is mapped in this hashtable.
+     *
+     * @param   key   possible key.
+     * @return  <code>true</code> if and only if the key is mapped in this
+     *          hashtable; <code>false</code> otherwise.
+     * @see     #containsValue(Object)
+     */
+    public boolean containsKey(long key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped in this map.
+     *
+     * @param   key   a key in the hashtable.
+     * @return  the value to which the key is mapped in this hashtable;
+     *          the no-entry value if the key is not mapped.
+     * @see     #put(long, Object)
+     */
+    public Object get(long key)
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+
+        while (flags[index])
+        {
+            if (tab[index] == key)
+            {
+                return values[index];
+            }
+
+            index = (index + 1) & mask;
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * Maps the specified <code>key</code> to the specified
+     * <code>value</code> in this hashtable.
+     *
+     * @param   key     the hashtable key.
+     * @param   value   the value.
+     * @return  the previous value of the specified key in this hashtable,
+     *          or the no-entry value if it did not have one.
+     * @throws  IllegalStateException  if a new key would take the map
+     *          past its load factor at its maximum capacity.
+     * @see     #get(long)
+     */
+    public Object put(long key, Object value)
+    {
+        int index = insertIndex(key);
+        if (index >= 0)
+        {
+            Object old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        index = -index - 1;
+        keys[index] = key;
+        values[index] = value;
+        used[index] = true;
+        count++;
+        return noEntryValue;
+    }
+
+    /**
+     * Removes the key (and its corresponding value) from this
+     * hashtable. This method does nothing if the key is not in the hashtable.
+     *
+     * @param   key   the key that needs to be removed.
+     * @return  the value to which the key had been mapped in this hashtable,
+     *          or the no-entry value if the key did not have a mapping.
+     */
+    public Object remove(long key)
+    {
+        int index = indexOf(key);
+        if (index < 0)
+            return noEntryValue;
+
+        long tab[] = keys;
+        Object vals[] = values;
+        boolean flags[] = used;
+        int mask = tab.length - 1;
+        Object oldValue = vals[index];
+        count--;
+
+        // Shift back any following entries that can no longer be reached
+        // across the gap just left.
+        int gap = index;
+        int next = index;
+        while (true)
+        {
+            next = (next + 1) & mask;
+
+            if (!flags[next])
+                break;
+
+            int home = PrimitiveHash.hash(tab[next]) & mask;
+
+            // The entry has to move if the gap is no further from its home
+            // slot than where it is now
+            if (((next - home) & mask) >= ((next - gap) & mask))
+            {
+                tab[gap] = tab[next];
+                vals[gap] = vals[next];
+                gap = next;
+            }
+        }
+
+        flags[gap] = false;
+        vals[gap] = null;
+        return oldValue;
+    }
+
+    /**
+     * Clears this hashtable so that it contains no keys.
+     */
+    public void clear()
+    {
+        boolean flags[] = used;
+        Object vals[] = values;
+        for (int index = flags.length; --index >= 0; )
+        {
+            flags[index] = false;
+            vals[index] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns the keys of this hashtable, in no particular order.
+     *
+     * @return  a new array holding every key.
+     */
+    public long[] keys()
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        long ret[] = new long[count];
+        int n = 0;
+
+        for (int i = 0; i < flags.length; i++)
+        {
+            if (flags[i])
+                ret[n++] = tab[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the values of this hashtable, in the same order as the keys
+     * returned by keys() if the map has not changed in between.
+     *
+     * @return  a new array holding every value.
+     */
+    public Object[] values()
+    {
+        Object vals[] = values;
+        boolean flags[] = used;
+        Object ret[] = new Object[count];
+        int n = 0;
+
+        for (int i = 0; i < flags.length; i++)
+        {
+            if (flags[i])
+                ret[n++] = vals[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Increases the capacity of and internally reorganizes this
+     * hashtable, in order to accommodate and access its entries more
+     * efficiently. This method is called automatically when the
+     * number of keys in the hashtable exceeds this hashtable's capacity
+     * and load factor.
+     *
+     * @throws IllegalStateException if the table is already at its
+     *    maximum capacity
+     */
+    protected void rehash()
+    {
+        int oldCapacity = keys.length;
+
+        if (oldCapacity == MAXIMUM_CAPACITY)
+            throw new IllegalStateException("Table is full");
+
+        long oldKeys[] = keys;
+        Object oldValues[] = values;
+        boolean oldUsed[] = used;
+
+        int newCapacity = oldCapacity * 2;
+        long tab[] = new long[newCapacity];
+        Object vals[] = new Object[newCapacity];
+        boolean flags[] = new boolean[newCapacity];
+        int mask = newCapacity - 1;
+
+        for (int i = 0; i < oldCapacity; i++)
+        {
+            if (!oldUsed[i])
+                continue;
+
+            int index = PrimitiveHash.hash(oldKeys[i]) & mask;
+            while (flags[index])
+            {
+                index = (index + 1) & mask;
+            }
+
+            tab[index] = oldKeys[i];
+            vals[index] = oldValues[i];
+            flags[index] = true;
+        }
+
+        keys = tab;
+        values = vals;
+        used = flags;
+        threshold = thresholdFor(newCapacity);
+    }
+
+    /**
+     * Find the slot holding the given key.
+     *
+     * @param key The key to look for
+     * @return The index of the slot, or -1 if the key is not in the table
+     */
+    private int indexOf(long key)
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        int mask = tab.length - 1;
+        int index = PrimitiveHash.hash(key) & mask;
+
+        while (flags[index])
+        {
+            if (tab[index] == key)
+            {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the slot holding the given key, or the empty slot a new entry
+     * for it should go in, rehashing first if the table is full.
+     *
+     * @param key The key to look for
+     * @return The index of the slot holding the key, or -(index + 1) of
+     *    the empty slot to fill
+     */
+    private int insertIndex(long key)
+    {
+        long tab[] = keys;
+        boolean flags[] = used;
+        int hash = PrimitiveHash.hash(key);
+        int mask = tab.length - 1;
+        int index = hash & mask;
+
+        while (flags[index])
+        {
+            if (tab[index] == key)
+            {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        if (count >= threshold)
+        {
+            // Rehash the table if the threshold is exceeded
+            rehash();
+
+            flags = used;
+            mask = flags.length - 1;
+            index = hash & mask;
+
+            while (flags[index])
+            {
+                index = (index + 1) & mask;
+            }
+        }
+        return -index - 1;
+    }
+
+    /**
+     * Work out the rehash threshold for a table of the given size, making
+     * sure that at least one slot is always left empty to end a probe.
+     *
+     * @param capacity The number of slots in the table
+     * @return The number of entries allowed before rehashing
+     */
+    private int thresholdFor(int capacity)
+    {
+        int limit = (int)(capacity * loadFactor);
+        if (limit >= capacity)
+            limit = capacity - 1;
+
+        return limit;
+    }
+}
@@ -0,0 +1,586 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 'First In First Out' (FIFO) queue that keeps its contents on disk, so
+ * that they survive the process being restarted.
+ * <P>
+ *
+ * Offers the same methods as the {@link Queue}. Items must be
+ * {@link java.io.Serializable}. Each item is serialized and appended to a
+ * segment file that is mapped into memory, so adding is a sequential write
+ * into the page cache and the queued items take no space on the heap. The
+ * position of the consumer is kept in a small mapped file of its own and
+ * updated on every removal. Once the consumer has read past the end of a
+ * segment, the segment file is deleted.
+ * <P>
+ *
+ * A record is only counted as written once its length has been stored,
+ * which happens after its contents, so a process that dies part way
+ * through an add leaves no partial item behind. Data reaches the disk when
+ * the operating system writes the mapped pages back; call sync() to force
+ * that, for example to survive a power failure as well as a process exit.
+ * <P>
+ *
+ * Like the Queue, this class is not thread safe. Only one instance should
+ * use a directory at a time.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.Queue
+ * @author  Justin Couch
+ * @version 1.0
+ */
+public class PersistentQueue
+{
+    /** The default size of each segment file in bytes */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** File name extension of the segment files */
+    private static final String SEGMENT_EXT = ".seg";
+
+    /** Name of the file holding the consumer position */
+    private static final String POSITION_FILE = "queue.pos";
+
+    /** Length value marking the end of the data in a segment */
+    private static final int END_OF_SEGMENT = -1;
+
+    /** Size of the length field in front of each record */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * A single segment file and its mapping.
+     */
+    private static class Segment
+    {
+        /** The sequence number of the segment */
+        final int id;
+
+        /** The open file */
+        final RandomAccessFile file;
+
+        /** The mapping of the whole file */
+        final MappedByteBuffer buffer;
+
+        /**
+         * Open or create a segment file and map it.
+         *
+         * @param dir The directory holding the segments
+         * @param id The sequence number of the segment
+         * @param size The size to create the file with if it is new
+         * @throws IOException The file could not be opened or mapped
+         */
+        Segment(File dir, int id, int size) throws IOException
+        {
+            this.id = id;
+
+            File f = new File(dir, segmentName(id));
+            file = new RandomAccessFile(f, "rw");
+
+            if(file.length() == 0)
+                file.setLength(size);
+
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                           0,
+                                           file.length());
+        }
+
+        /**
+         * Close the file. The mapping stays valid until it is collected.
+         *
+         * @throws IOException The file could not be closed
+         */
+        void close() throws IOException
+        {
+            file.close();
+        }
+    }
+
+    /** The directory holding all of the files */
+    private final File m_directory;
+
+    /** The size of newly created segments */
+    private final int m_segmentSize;
+
+    /** The segment the consumer reads from */
+    private Segment m_head;
+
+    /** Offset of the next record to read in the head segment */
+    private int m_headOffset;
+
+    /** The segment the producer writes to */
+    private Segment m_tail;
+
+    /** Offset of the next record to write in the tail segment */
+    private int m_tailOffset;
+
+    /** The number of items in the queue */
+    private int m_count;
+
+    /** The open consumer position file */
+    private RandomAccessFile m_positionFile;
+
+    /** Mapping of the consumer position file */
+    private MappedByteBuffer m_position;
+
+    /** Buffer reused to serialize items */
+    private ByteArrayOutputStream m_bytes;
+
+    /**
+     * Constructor. Open the queue held in the given directory with the
+     * default segment size, creating it if needed.
+     *
+     * @param dir The directory to keep the queue in
+     * @throws IOException The queue files could not be opened or created
+     */
+    public PersistentQueue(File dir) throws IOException
+    {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor. Open the queue held in the given directory, creating it
+     * if needed. Items that are too large for a segment get a segment of
+     * their own, sized to fit.
+     *
+     * @param dir The directory to keep the queue in
+     * @param segmentSize The size in bytes of newly created segment files
+     * @throws IOException The queue files could not be opened or created
+     * @throws IllegalArgumentException if the segment size is too small
+     */
+    public PersistentQueue(File dir, int segmentSize) throws IOException
+    {
+        if(segmentSize < HEADER_SIZE * 2)
+            throw new IllegalArgumentException("Illegal segment size: " +
+                                               segmentSize);
+
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+
+        m_directory = dir;
+        m_segmentSize = segmentSize;
+        m_bytes = new ByteArrayOutputStream();
+
+        open();
+    }
+
+    /**
+     * Add an element to the end of the queue.
+     *
+     * @param o Element to add. Must be serializable.
+     * @throws UncheckedIOException The element could not be serialized or
+     *    written
+     */
+    public void add(Object o)
+    {
+        try
+        {
+            m_bytes.reset();
+            ObjectOutputStream out = new ObjectOutputStream(m_bytes);
+            out.writeObject(o);
+            out.close();
+
+            int len = m_bytes.size();
+            int needed = HEADER_SIZE + len;
+
+            if(m_tailOffset + needed + HEADER_SIZE > m_tail.buffer.capacity())
+                nextTailSegment(needed + HEADER_SIZE);
+
+            MappedByteBuffer buf = m_tail.buffer;
+            buf.position(m_tailOffset + HEADER_SIZE);
+            buf.put(m_bytes.toByteArray(), 0, len);
+            buf.putInt(m_tailOffset, len);
+
+            m_tailOffset += needed;
+            m_count++;
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Return the next element from the front and remove it from the queue.
+     *
+     * @return element at the from of the queue, or null if empty.
+     * @throws UncheckedIOException The element could not be read
+     */
+    public Object getNext()
+    {
+        if(m_count == 0)
+            return null;
+
+        try
+        {
+            int len = seekHead();
+            Object o = read(m_headOffset, len);
+
+            m_headOffset += HEADER_SIZE + len;
+            m_count--;
+            savePosition();
+
+            return o;
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Return the next element from the front of the queue.
+     *
+     * @return element at the from of the queue, or null if empty.
+     * @throws UncheckedIOException The element could not be read
+     */
+    public Object peekNext()
+    {
+        if(m_count == 0)
+            return null;
+
+        try
+        {
+            int len = seekHead();
+            return read(m_headOffset, len);
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Check if queue has more elements.
+     *
+     * @return true if queue has more elements.
+     */
+    public boolean hasNext()
+    {
+        return (m_count > 0);
+    }
+
+    /**
+     * Return the number of elements in the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * Remove all elements in the queue, deleting their segment files.
+     *
+     * @throws UncheckedIOException The files could not be removed
+     */
+    public void clear()
+    {
+        try
+        {
+            int next_id = m_tail.id + 1;
+
+            if(m_head != m_tail)
+                m_head.close();
+            m_tail.close();
+
+            for(int id = m_head.id; id < next_id; id++)
+                new File(m_directory, segmentName(id)).delete();
+
+            m_tail = new Segment(m_directory, next_id, m_segmentSize);
+            m_tailOffset = 0;
+            m_head = m_tail;
+            m_headOffset = 0;
+            m_count = 0;
+
+            savePosition();
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Force everything written so far, and the consumer position, out to
+     * the disk. Earlier segments were forced when the tail moved on from
+     * them, so only the current tail needs it here.
+     */
+    public void sync()
+    {
+        m_tail.buffer.force();
+        m_position.force();
+    }
+
+    /**
+     * Write everything out and close the files. The queue must not be used
+     * afterwards.
+     *
+     * @throws IOException The files could not be closed
+     */
+    public void close() throws IOException
+    {
+        sync();
+
+        if(m_head != m_tail)
+            m_head.close();
+
+        m_tail.close();
+        m_positionFile.close();
+    }
+
+    /**
+     * Open the files in the directory and work out the state of the queue.
+     *
+     * @throws IOException The files could not be read
+     */
+    private void open() throws IOException
+    {
+        String[] names = m_directory.list();
+        int[] ids = new int[names.length];
+        int num_ids = 0;
+
+        for(int i = 0; i < names.length; i++)
+        {
+            if(!names[i].endsWith(SEGMENT_EXT))
+                continue;
+
+            try
+            {
+                String num = names[i].substring(0, names[i].length() -
+                                                   SEGMENT_EXT.length());
+                ids[num_ids++] = Integer.parseInt(num);
+            }
+            catch(NumberFormatException nfe)
+            {
+                // Not one of ours
+            }
+        }
+
+        Arrays.sort(ids, 0, num_ids);
+
+        m_positionFile =
+            new RandomAccessFile(new File(m_directory, POSITION_FILE), "rw");
+        m_positionFile.setLength(8);
+        m_position = m_positionFile.getChannel().map(
+                         FileChannel.MapMode.READ_WRITE, 0, 8);
+
+        if(num_ids == 0)
+        {
+            m_tail = new Segment(m_directory, 0, m_segmentSize);
+            m_head = m_tail;
+            savePosition();
+            return;
+        }
+
+        int first_id = ids[0];
+        int last_id = ids[num_ids - 1];
+
+        long pos = m_position.getLong(0);
+        int head_id = (int)(pos >>> 32);
+        m_headOffset = (int)pos;
+
+        if(head_id < first_id || head_id > last_id)
+        {
+            head_id = first_id;
+            m_headOffset = 0;
+        }
+
+        // Anything before the consumer has already been read
+        for(int i = 0; i < num_ids && ids[i] < head_id; i++)
+            new File(m_directory, segmentName(ids[i])).delete();
+
+        // Count the records left to read and find the end of the data
+        m_count = 0;
+        Segment seg = null;
+        int offset = m_headOffset;
+
+        for(int id = head_id; id <= last_id; id++)
+        {
+            if(seg != null && seg.id != head_id)
+                seg.close();
+
+            seg = new Segment(m_directory, id, m_segmentSize);
+            if(id == head_id)
+                m_head = seg;
+            else
+                offset = 0;
+
+            int cap = seg.buffer.capacity();
+            while(offset + HEADER_SIZE <= cap)
+            {
+                int len = seg.buffer.getInt(offset);
+                if(len <= 0)
+                    break;
+
+                offset += HEADER_SIZE + len;
+                m_count++;
+            }
+        }
+
+        m_tail = seg;
+        m_tailOffset = offset;
+
+        // The last segment was closed off but its successor never made it
+        if(offset + HEADER_SIZE <= m_tail.buffer.capacity() &&
+           m_tail.buffer.getInt(offset) == END_OF_SEGMENT)
+            nextTailSegment(0);
+
+        savePosition();
+    }
+
+    /**
+     * Move the head to the record that will be read next, stepping over
+     * and deleting any segments that have been read to the end.
+     *
+     * @return The length of the record at the head
+     * @throws IOException The next segment could not be opened
+     */
+    private int seekHead() throws IOException
+    {
+        while(true)
+        {
+            int cap = m_head.buffer.capacity();
+
+            if(m_headOffset + HEADER_SIZE <= cap)
+            {
+                int len = m_head.buffer.getInt(m_headOffset);
+                if(len > 0)
+                    return len;
+            }
+
+            // Nothing more in this segment. As there are items left, the
+            // producer must have moved on to a later one.
+            int next_id = m_head.id + 1;
+            m_head.close();
+            new File(m_directory, segmentName(m_head.id)).delete();
+
+            if(m_tail.id == next_id)
+                m_head = m_tail;
+            else
+                m_head = new Segment(m_directory, next_id, m_segmentSize);
+
+            m_headOffset = 0;
+            savePosition();
+        }
+    }
+
+    /**
+     * Close off the tail segment and start a new one.
+     *
+     * @param minSize The number of bytes the new segment must hold
+     * @throws IOException The new segment could not be created
+     */
+    private void nextTailSegment(int minSize) throws IOException
+    {
+        if(m_tailOffset + HEADER_SIZE <= m_tail.buffer.capacity())
+            m_tail.buffer.putInt(m_tailOffset, END_OF_SEGMENT);
+
+        // sync() only forces the current tail, so the segment being left
+        // has to be made durable now, end marker included
+        m_tail.buffer.force();
+
+        if(m_tail != m_head)
+            m_tail.close();
+
+        int size = (minSize > m_segmentSize) ? minSize : m_segmentSize;
+        m_tail = new Segment(m_directory, m_tail.id + 1, size);
+        m_tailOffset = 0;
+    }
+
+    /**
+     * Deserialize the record at the given offset of the head segment.
+     *
+     * @param offset The offset of the record header
+     * @param len The length of the record data
+     * @return The deserialized item
+     * @throws IOException The record could not be deserialized
+     */
+    private Object read(int offset, int len) throws IOException
+    {
+        byte[] data = new byte[len];
+
+        MappedByteBuffer buf = m_head.buffer;
+        buf.position(offset + HEADER_SIZE);
+        buf.get(data);
+
+        ObjectInputStream in =
+            new ObjectInputStream(new ByteArrayInputStream(data));
+
+        try
+        {
+            return in.readObject();
+        }
+        catch(ClassNotFoundException cnfe)
+        {
+            throw new IOException("Unknown class in queue record", cnfe);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Record the consumer position in the position file as a single long so
+     * that it is never seen half written.
+     */
+    private void savePosition()
+    {
+        long pos = ((long)m_head.id << 32) | (m_headOffset & 0xFFFFFFFFL);
+        m_position.putLong(0, pos);
+    }
+
+    /**
+     * Build the file name for a segment. The number is zero padded so that
+     * the files list in order.
+     *
+     * @param id The sequence number of the segment
+     * @return The file name
+     */
+    private static String segmentName(int id)
+    {
+        String num = Integer.toString(id);
+        StringBuffer buf = new StringBuffer(10 + SEGMENT_EXT.length());
+
+        for(int i = num.length(); i < 10; i++)
+            buf.append('0');
+
+        buf.append(num);
+        buf.append(SEGMENT_EXT);
+
+        return buf.toString();
+    }
+}
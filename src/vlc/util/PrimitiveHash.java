@@ -0,0 +1,78 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * Hash functions for the generated primitive maps and sets, also used by
+ * {@link IntHashMap} and {@link ConcurrentIntHashMap}.
+ * <P>
+ *
+ * Both scramble the key with a MurmurHash3 finalizer, so that every bit of
+ * the key affects the low bits used to pick a slot of a power of two table,
+ * and the high bits ConcurrentIntHashMap uses to pick a segment. Being
+ * overloaded, the templates can call hash(key) whatever the key type.
+ *
+ * @version 1.0
+ *
+ * @author Justin Couch
+ */
+final class PrimitiveHash
+{
+    /**
+     * Not used. Only static methods.
+     */
+    private PrimitiveHash()
+    {
+    }
+
+    /**
+     * Mix an int key with the MurmurHash3 32 bit finalizer.
+     *
+     * @param key The key to hash
+     * @return The mixed hash code
+     */
+    static int hash(int key)
+    {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Mix a long key with the MurmurHash3 64 bit finalizer and fold the
+     * result down to an int.
+     *
+     * @param key The key to hash
+     * @return The mixed hash code
+     */
+    static int hash(long key)
+    {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int)(h ^ (h >>> 32));
+    }
+}
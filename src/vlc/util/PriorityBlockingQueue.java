@@ -0,0 +1,391 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking queue that hands out items in priority order.
+ * <P>
+ *
+ * Works like the {@link BlockingQueue}, but each item is added with a
+ * priority and getNext() always returns an item from the most urgent
+ * priority that has any. Priority 0 is the most urgent. Items of the same
+ * priority come out in the order they went in.
+ * <P>
+ *
+ * There is a small, fixed number of priorities, each with its own FIFO
+ * lane. A bit mask records which lanes hold items, so both adding and
+ * taking an item are constant time whatever the number of items queued.
+ * Ordering is strict: as long as there are urgent items, less urgent ones
+ * wait.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class PriorityBlockingQueue
+{
+    /** The largest number of priorities supported */
+    public static final int MAX_PRIORITIES = 32;
+
+    /** One FIFO queue per priority */
+    private final Queue[] m_lanes;
+
+    /** Bit n is set when lane n holds items */
+    private int m_usedLanes;
+
+    /** The total number of items in all lanes */
+    private int m_count;
+
+    /** The priority used by add(Object) */
+    private final int m_defaultPriority;
+
+    /** Incremented for every purge so that waiting consumers can leave */
+    private int m_purgeCount;
+
+    /** Lock guarding all access to the queue */
+    private final ReentrantLock m_lock;
+
+    /** Condition consumers wait on when the queue is empty */
+    private final Condition m_notEmpty;
+
+    /**
+     * Constructor. Create a queue with the given number of priorities.
+     * Items added without a priority get the least urgent one.
+     *
+     * @param priorities The number of priorities, from 1 to MAX_PRIORITIES
+     * @throws IllegalArgumentException if the number is out of range
+     */
+    public PriorityBlockingQueue(int priorities)
+    {
+        this(priorities, priorities - 1);
+    }
+
+    /**
+     * Constructor. Create a queue with the given number of priorities and
+     * the priority to give items that are added without one.
+     *
+     * @param priorities The number of priorities, from 1 to MAX_PRIORITIES
+     * @param defaultPriority The priority used by add(Object)
+     * @throws IllegalArgumentException if either value is out of range
+     */
+    public PriorityBlockingQueue(int priorities, int defaultPriority)
+    {
+        if(priorities < 1 || priorities > MAX_PRIORITIES)
+            throw new IllegalArgumentException("Illegal priority count: " +
+                                               priorities);
+
+        if(defaultPriority < 0 || defaultPriority >= priorities)
+            throw new IllegalArgumentException("Illegal default priority: " +
+                                               defaultPriority);
+
+        m_lanes = new Queue[priorities];
+        for(int i = 0; i < priorities; i++)
+            m_lanes[i] = new Queue();
+
+        m_defaultPriority = defaultPriority;
+        m_lock = new ReentrantLock();
+        m_notEmpty = m_lock.newCondition();
+    }
+
+    /**
+     * Add an object to the end of the queue with the default priority.
+     *
+     * @param o Object to add.
+     */
+    public void add(Object o)
+    {
+        add(o, m_defaultPriority);
+    }
+
+    /**
+     * Add an object to the end of the lane for the given priority.
+     *
+     * @param o Object to add.
+     * @param priority The priority, with 0 being the most urgent
+     * @throws IllegalArgumentException if the priority is out of range
+     */
+    public void add(Object o, int priority)
+    {
+        if(priority < 0 || priority >= m_lanes.length)
+            throw new IllegalArgumentException("Illegal priority: " +
+                                               priority);
+
+        m_lock.lock();
+        try
+        {
+            m_lanes[priority].add(o);
+            m_usedLanes |= (1 << priority);
+            m_count++;
+
+            m_notEmpty.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the most urgent element in the queue, and remove it from the
+     * queue. Under normal circumstances this method will always return an
+     * object, blocking if it has to until something is available. If the
+     * queue is purged while waiting, null is returned instead.
+     *
+     * @return the most urgent element, will block until queue is not empty.
+     */
+    public Object getNext()
+    {
+        m_lock.lock();
+        try
+        {
+            int purge = m_purgeCount;
+
+            while(m_count == 0 && purge == m_purgeCount)
+                m_notEmpty.awaitUninterruptibly();
+
+            return take();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the most urgent element in the queue, and remove it from the
+     * queue, waiting no longer than the given time for one to be added.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return the most urgent element, or null if the timeout expired,
+     *    the queue was purged or the thread was interrupted first. The
+     *    interrupt status is left set
+     */
+    public Object getNext(long timeout, TimeUnit unit)
+    {
+        long nanos = unit.toNanos(timeout);
+
+        m_lock.lock();
+        try
+        {
+            int purge = m_purgeCount;
+
+            while(m_count == 0 && purge == m_purgeCount && nanos > 0)
+            {
+                try
+                {
+                    nanos = m_notEmpty.awaitNanos(nanos);
+                }
+                catch(InterruptedException e)
+                {
+                    // Give up as if the time had run out
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            return take();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the most urgent element in the queue and remove it, without
+     * waiting.
+     *
+     * @return the most urgent element, or null if empty
+     */
+    public Object poll()
+    {
+        m_lock.lock();
+        try
+        {
+            return take();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Get the most urgent element in the queue without removing it.
+     *
+     * @return the most urgent element, null if empty.
+     */
+    public Object peekNext()
+    {
+        m_lock.lock();
+        try
+        {
+            if(m_count == 0)
+                return null;
+
+            int lane = Integer.numberOfTrailingZeros(m_usedLanes);
+            return m_lanes[lane].peekNext();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Check if queue has more objects.
+     *
+     * @return true if queue has more objects.
+     */
+    public boolean hasNext()
+    {
+        m_lock.lock();
+        try
+        {
+            return (m_count > 0);
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the size of the queue, over all priorities.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        m_lock.lock();
+        try
+        {
+            return m_count;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of items waiting at the given priority.
+     *
+     * @param priority The priority to look at
+     * @return The number of items with that priority
+     * @throws IllegalArgumentException if the priority is out of range
+     */
+    public int size(int priority)
+    {
+        if(priority < 0 || priority >= m_lanes.length)
+            throw new IllegalArgumentException("Illegal priority: " +
+                                               priority);
+
+        m_lock.lock();
+        try
+        {
+            return m_lanes[priority].size();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all elements from queue. Also unblock those who are waiting for
+     * items in the queue. They leave the getNext() method with null.
+     */
+    public void purge()
+    {
+        m_lock.lock();
+        try
+        {
+            removeAll();
+            m_purgeCount++;
+            m_notEmpty.signalAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Clear the queue of items. If there are users of the class that are
+     * blocked while waiting for elements in the queue, they remain so.
+     */
+    public void clear()
+    {
+        m_lock.lock();
+        try
+        {
+            removeAll();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the most urgent item. Must be called while holding the lock.
+     *
+     * @return The item removed or null if the queue is empty
+     */
+    private Object take()
+    {
+        if(m_count == 0)
+            return null;
+
+        int lane = Integer.numberOfTrailingZeros(m_usedLanes);
+        Queue queue = m_lanes[lane];
+        Object o = queue.getNext();
+
+        if(!queue.hasNext())
+            m_usedLanes &= ~(1 << lane);
+
+        m_count--;
+
+        return o;
+    }
+
+    /**
+     * Empty every lane. Must be called while holding the lock.
+     */
+    private void removeAll()
+    {
+        for(int i = 0; i < m_lanes.length; i++)
+            m_lanes[i].clear();
+
+        m_usedLanes = 0;
+        m_count = 0;
+    }
+}
@@ -17,36 +17,124 @@
 
 package vlc.util;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * Simple 'First In First Out' (FIFO) queue. Backend is implemented
- * with a Collections LinkedList.
+ * with a circular array whose size is always a power of two.
  * <P>
  *
  * This simple queue does not block if you request an item. If nothing is
  * in the queue then it just returns you a null value.
  * <P>
  *
+ * The array grows by doubling when it fills up and is never shrunk again,
+ * so once the queue has reached its working size, adding and removing items
+ * does not create any garbage.
+ * <P>
+ *
+ * A queue may also be created with a memory limit and a spill directory.
+ * Up to the limit, items are held in the array as normal. Past it, further
+ * items are serialized to temporary files in the directory and read back
+ * into the array, in order, once it has been emptied. Until the files have
+ * been read, new items go to the end of the files rather than the array,
+ * so the queue stays FIFO. Items must then be serializable, and any I/O
+ * error is thrown as an UncheckedIOException.
+ * <P>
+ *
  * This softare is released under the
  * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
  * <P>
  *
- * @see java.util.LinkedList
  * @author  Justin Couch
- * @version 1.0 (5 June 2000)
+ * @version 1.1
  */
 public class Queue
 {
-    /** linked list queue */
-    private LinkedList m_queue;
+    /** The default number of slots in a newly created queue */
+    private static final int DEFAULT_SIZE = 16;
+
+    /** The largest array a queue uses. Sizes are powers of two */
+    private static final int MAXIMUM_SIZE = 1 << 30;
+
+    /** circular array of queued items. Length is always a power of two */
+    private Object[] m_elements;
+
+    /** Index of the item at the front of the queue */
+    private int m_head;
+
+    /** The number of items currently in the array */
+    private int m_count;
+
+    /** The most items held in the array before the rest are spilled */
+    private final int m_memoryLimit;
+
+    /** Where items past the memory limit go. Null if not spilling */
+    private final SpillStore m_spill;
 
     /**
      * Constructor. Create a simple queue.
      */
     public Queue()
     {
-        m_queue = new LinkedList();
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * items before it needs to resize the internal storage.
+     *
+     * @param initialSize The number of items to make room for
+     * @throws IllegalArgumentException if the size is not positive or is
+     *    more than 2<sup>30</sup>
+     */
+    public Queue(int initialSize)
+    {
+        if(initialSize <= 0 || initialSize > MAXIMUM_SIZE)
+            throw new IllegalArgumentException("Illegal size: " +
+                                               initialSize);
+
+        int size = 1;
+        while(size < initialSize)
+            size <<= 1;
+
+        m_elements = new Object[size];
+        m_memoryLimit = Integer.MAX_VALUE;
+        m_spill = null;
+    }
+
+    /**
+     * Constructor. Create a queue that holds no more than the given number
+     * of items in memory, and spills the rest to files in the given
+     * directory. The files are deleted as they are read back, but any left
+     * behind if the process dies have to be removed by the caller.
+     *
+     * @param memoryLimit The maximum number of items to hold in memory
+     * @param spillDir The directory to write the spill files to
+     * @throws IllegalArgumentException if the limit is not positive or the
+     *    directory does not exist
+     */
+    public Queue(int memoryLimit, File spillDir)
+    {
+        if(memoryLimit <= 0)
+            throw new IllegalArgumentException("Illegal memory limit: " +
+                                               memoryLimit);
+
+        if(!spillDir.isDirectory())
+            throw new IllegalArgumentException("Not a directory: " +
+                                               spillDir);
+
+        int size = 1;
+        while(size < DEFAULT_SIZE && size < memoryLimit)
+            size <<= 1;
+
+        m_elements = new Object[size];
+        m_memoryLimit = memoryLimit;
+        m_spill = new SpillStore(spillDir);
     }
 
     /**
@@ -56,7 +144,81 @@ public class Queue
      */
     public void add(Object o)
     {
-        m_queue.addLast(o);
+        if(m_spill != null)
+        {
+            append(o);
+            return;
+        }
+
+        if(m_count == m_elements.length)
+            grow(m_count + 1);
+
+        m_elements[(m_head + m_count) & (m_elements.length - 1)] = o;
+        m_count++;
+    }
+
+    /**
+     * Add all of the elements of the array to the end of the queue, in
+     * order. The storage is resized at most once for the whole batch.
+     *
+     * @param items The elements to add
+     */
+    public void addAll(Object[] items)
+    {
+        if(m_spill != null)
+        {
+            for(int i = 0; i < items.length; i++)
+                append(items[i]);
+
+            return;
+        }
+
+        int num = items.length;
+        if(num > m_elements.length - m_count)
+            grow(m_count + num);
+
+        int tail = (m_head + m_count) & (m_elements.length - 1);
+        int first = m_elements.length - tail;
+        if(first > num)
+            first = num;
+
+        System.arraycopy(items, 0, m_elements, tail, first);
+        System.arraycopy(items, first, m_elements, 0, num - first);
+        m_count += num;
+    }
+
+    /**
+     * Add all of the elements of the collection to the end of the queue, in
+     * the order returned by its iterator. The storage is resized at most
+     * once for the whole batch.
+     *
+     * @param items The elements to add
+     */
+    public void addAll(Collection items)
+    {
+        if(m_spill != null)
+        {
+            Iterator itr = items.iterator();
+            while(itr.hasNext())
+                append(itr.next());
+
+            return;
+        }
+
+        int num = items.size();
+        if(num > m_elements.length - m_count)
+            grow(m_count + num);
+
+        Iterator itr = items.iterator();
+        while(itr.hasNext())
+        {
+            if(m_count == m_elements.length)
+                grow(m_count + 1);
+
+            m_elements[(m_head + m_count) & (m_elements.length - 1)] =
+                itr.next();
+            m_count++;
+        }
     }
 
     /**
@@ -66,11 +228,80 @@ public class Queue
      */
     public Object getNext()
     {
-        if (hasNext())
+        if(m_count == 0 && !refill())
+            return null;
+
+        Object o = m_elements[m_head];
+        m_elements[m_head] = null;
+        m_head = (m_head + 1) & (m_elements.length - 1);
+        m_count--;
+
+        return o;
+    }
+
+    /**
+     * Remove up to the given number of elements from the front of the queue
+     * and add them, in order, to the given collection.
+     *
+     * @param max The maximum number of elements to remove
+     * @param sink The collection to add the elements to
+     * @return The number of elements removed, 0 if the queue was empty
+     */
+    public int getNext(int max, Collection sink)
+    {
+        int mask = m_elements.length - 1;
+        int num = 0;
+
+        while(num < max && (m_count > 0 || refill()))
         {
-            return m_queue.removeFirst();
+            sink.add(m_elements[m_head]);
+            m_elements[m_head] = null;
+            m_head = (m_head + 1) & mask;
+            m_count--;
+            num++;
         }
-        return null;
+
+        return num;
+    }
+
+    /**
+     * Remove up to the given number of elements from the front of the queue
+     * and copy them, in order, into the given array starting at index 0.
+     * No more than the length of the array will be removed.
+     *
+     * @param max The maximum number of elements to remove
+     * @param items The array to copy the elements to
+     * @return The number of elements removed, 0 if the queue was empty
+     */
+    public int getNext(int max, Object[] items)
+    {
+        if(m_count == 0)
+            refill();
+
+        int num = max;
+        if(num > items.length)
+            num = items.length;
+        if(num > m_count)
+            num = m_count;
+
+        if(num <= 0)
+            return 0;
+
+        int first = m_elements.length - m_head;
+        if(first > num)
+            first = num;
+
+        System.arraycopy(m_elements, m_head, items, 0, first);
+        System.arraycopy(m_elements, 0, items, first, num - first);
+
+        int mask = m_elements.length - 1;
+        for(int i = 0; i < num; i++)
+            m_elements[(m_head + i) & mask] = null;
+
+        m_head = (m_head + num) & mask;
+        m_count -= num;
+
+        return num;
     }
 
     /**
@@ -80,11 +311,10 @@ public class Queue
      */
     public Object peekNext()
     {
-        if (hasNext())
-        {
-            return m_queue.getFirst();
-        }
-        return null;
+        if(m_count == 0 && !refill())
+            return null;
+
+        return m_elements[m_head];
     }
 
     /**
@@ -94,7 +324,7 @@ public class Queue
      */
     public boolean hasNext()
     {
-        return (m_queue.size() > 0);
+        return (m_count > 0 || (m_spill != null && m_spill.size() > 0));
     }
 
     /**
@@ -104,7 +334,10 @@ public class Queue
      */
     public int size()
     {
-        return m_queue.size();
+        if(m_spill != null)
+            return m_count + m_spill.size();
+
+        return m_count;
     }
 
     /**
@@ -113,6 +346,116 @@ public class Queue
      */
     public void clear()
     {
-        m_queue.clear();
+        int mask = m_elements.length - 1;
+        for(int i = 0; i < m_count; i++)
+            m_elements[(m_head + i) & mask] = null;
+
+        m_head = 0;
+        m_count = 0;
+
+        if(m_spill != null)
+        {
+            try
+            {
+                m_spill.clear();
+            }
+            catch(IOException ioe)
+            {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     * Add an item when spilling is enabled. It goes into the array only if
+     * there is room under the memory limit and nothing is waiting on disk
+     * ahead of it.
+     *
+     * @param o The item to add
+     */
+    private void append(Object o)
+    {
+        try
+        {
+            if(m_count >= m_memoryLimit || m_spill.size() > 0)
+            {
+                m_spill.write(o);
+                return;
+            }
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+
+        if(m_count == m_elements.length)
+            grow(m_count + 1);
+
+        m_elements[(m_head + m_count) & (m_elements.length - 1)] = o;
+        m_count++;
+    }
+
+    /**
+     * Move as many spilled items as the memory limit allows back into the
+     * empty array.
+     *
+     * @return true if any items were moved
+     */
+    private boolean refill()
+    {
+        if(m_spill == null || m_spill.size() == 0)
+            return false;
+
+        int num = m_spill.size();
+        if(num > m_memoryLimit)
+            num = m_memoryLimit;
+
+        if(num > m_elements.length)
+            grow(num);
+
+        try
+        {
+            for(int i = 0; i < num; i++)
+            {
+                m_elements[(m_head + m_count) & (m_elements.length - 1)] =
+                    m_spill.read();
+                m_count++;
+            }
+        }
+        catch(IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+
+        return true;
+    }
+
+    /**
+     * Double the size of the internal storage until it can hold the given
+     * number of items, unwrapping the current contents so that the front of
+     * the queue is at index zero.
+     *
+     * @param minSize The number of items the storage must be able to hold
+     * @throws OutOfMemoryError if that is more than 2<sup>30</sup> items
+     */
+    private void grow(int minSize)
+    {
+        // A negative size is a count that has overflowed
+        if(minSize < 0 || minSize > MAXIMUM_SIZE)
+            throw new OutOfMemoryError("Queue too large");
+
+        int old_size = m_elements.length;
+        int new_size = old_size << 1;
+        while(new_size < minSize)
+            new_size <<= 1;
+
+        Object[] new_elements = new Object[new_size];
+
+        int front = old_size - m_head;
+        System.arraycopy(m_elements, m_head, new_elements, 0, front);
+        System.arraycopy(m_elements, 0, new_elements, front, m_head);
+
+        m_elements = new_elements;
+        m_head = 0;
     }
 }
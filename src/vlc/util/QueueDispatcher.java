@@ -0,0 +1,490 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of worker threads that take items off a {@link BlockingQueue} and
+ * pass them to a handler.
+ * <P>
+ *
+ * Each worker drains the queue in batches of up to a given size, so a busy
+ * queue is locked once per batch rather than once per item. The handler is
+ * called with the batch on the worker thread.
+ * <P>
+ *
+ * Without a key selector the workers all take from the queue directly, and
+ * items are processed in no particular order. With a key selector, a single
+ * router thread takes the items instead and hands each one to a worker
+ * chosen from its key, through a small per-worker queue. Items with the
+ * same key are then always processed by the same worker, in the order they
+ * were queued.
+ * <P>
+ *
+ * Threads come from a ThreadFactory, so the workers may be platform or
+ * virtual threads as the caller chooses. By default they are daemon
+ * platform threads.
+ * <P>
+ *
+ * shutdown() closes the queue. The workers carry on until everything
+ * already in it has been handled and then exit. shutdownNow() also closes
+ * the queue but has the workers exit after their current batch, leaving
+ * anything not yet taken in the queue. awaitTermination() waits for the
+ * threads to finish.
+ * <P>
+ *
+ * An exception thrown by the handler is passed to the worker thread's
+ * uncaught exception handler, and the worker carries on with the next
+ * batch. In the same way, an exception thrown by the key selector goes to
+ * the router thread's handler, and that item is dropped.
+ *
+ * @see vlc.util.BlockingQueue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class QueueDispatcher
+{
+    /**
+     * Receives the items taken from the queue.
+     */
+    public interface Handler
+    {
+        /**
+         * Process a batch of items. The array is reused for the next batch
+         * once this returns.
+         *
+         * @param items The items, starting at index 0
+         * @param num The number of items in the array
+         */
+        public void processItems(Object[] items, int num);
+    }
+
+    /**
+     * Gives the key that decides which worker handles an item.
+     */
+    public interface KeySelector
+    {
+        /**
+         * Get the key of the given item.
+         *
+         * @param item The item to be dispatched
+         * @return The key of the item
+         */
+        public int getKey(Object item);
+    }
+
+    /** The default maximum number of items handed to the handler at once */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /** The number of batches each worker may have queued when sharding */
+    private static final int SHARD_BATCHES = 4;
+
+    /** The queue the items come from */
+    private final BlockingQueue m_queue;
+
+    /** Who the items go to */
+    private final Handler m_handler;
+
+    /** Chooses the worker for each item. Null if not sharding */
+    private final KeySelector m_keySelector;
+
+    /** The maximum number of items handed to the handler at once */
+    private final int m_batchSize;
+
+    /** The per-worker queues when sharding. Null otherwise */
+    private final BlockingQueue[] m_shards;
+
+    /** The worker threads */
+    private final Thread[] m_workers;
+
+    /** The thread routing items to the shards. Null if not sharding */
+    private final Thread m_router;
+
+    /** Set by shutdownNow() to stop the workers after their current batch */
+    private volatile boolean m_stopped = false;
+
+    /** Set once start() has been called */
+    private boolean m_started = false;
+
+    /**
+     * Constructor. Create a dispatcher with the given number of workers,
+     * taking items from the queue in the default batch size with no
+     * ordering.
+     *
+     * @param queue The queue to take items from
+     * @param handler The handler to give the items to
+     * @param workers The number of worker threads
+     * @throws IllegalArgumentException if the worker count is not positive
+     */
+    public QueueDispatcher(BlockingQueue queue, Handler handler, int workers)
+    {
+        this(queue, handler, workers, DEFAULT_BATCH_SIZE, null, null);
+    }
+
+    /**
+     * Constructor. Create a dispatcher with full control over how the items
+     * are handed out.
+     *
+     * @param queue The queue to take items from
+     * @param handler The handler to give the items to
+     * @param workers The number of worker threads
+     * @param batchSize The maximum number of items handed over at once
+     * @param keys Chooses the worker for each item, or null to let any
+     *    worker take any item
+     * @param factory Creates the threads, or null for daemon platform
+     *    threads
+     * @throws IllegalArgumentException if the worker count or batch size is
+     *    not positive
+     */
+    public QueueDispatcher(BlockingQueue queue,
+                           Handler handler,
+                           int workers,
+                           int batchSize,
+                           KeySelector keys,
+                           ThreadFactory factory)
+    {
+        if(workers <= 0)
+            throw new IllegalArgumentException("Illegal worker count: " +
+                                               workers);
+
+        if(batchSize <= 0)
+            throw new IllegalArgumentException("Illegal batch size: " +
+                                               batchSize);
+
+        m_queue = queue;
+        m_handler = handler;
+        m_keySelector = keys;
+        m_batchSize = batchSize;
+        m_workers = new Thread[workers];
+
+        if(factory == null)
+            factory = new DefaultThreadFactory();
+
+        if(keys == null)
+        {
+            m_shards = null;
+            m_router = null;
+
+            for(int i = 0; i < workers; i++)
+                m_workers[i] = factory.newThread(new Worker(queue));
+        }
+        else
+        {
+            m_shards = new BlockingQueue[workers];
+
+            for(int i = 0; i < workers; i++)
+            {
+                m_shards[i] = new BlockingQueue(batchSize * SHARD_BATCHES);
+                m_workers[i] = factory.newThread(new Worker(m_shards[i]));
+            }
+
+            m_router = factory.newThread(new Router());
+        }
+    }
+
+    /**
+     * Start the threads. Has no effect if they have already been started.
+     */
+    public synchronized void start()
+    {
+        if(m_started)
+            return;
+
+        m_started = true;
+
+        if(m_router != null)
+            m_router.start();
+
+        for(int i = 0; i < m_workers.length; i++)
+            m_workers[i].start();
+    }
+
+    /**
+     * Close the queue and let the workers exit once everything in it has
+     * been handled. Does not wait for them to do so.
+     */
+    public void shutdown()
+    {
+        m_queue.close();
+    }
+
+    /**
+     * Close the queue and have the workers exit as soon as they have
+     * handled their current batch. Items not yet taken stay in the queue.
+     * <P>
+     *
+     * With a key selector, items that have already been taken from the
+     * queue but not yet handled are dropped. That is up to one batch on its
+     * way through the router, plus whatever is waiting in the queues of the
+     * workers.
+     */
+    public void shutdownNow()
+    {
+        m_stopped = true;
+        m_queue.close();
+
+        if(m_shards != null)
+        {
+            for(int i = 0; i < m_shards.length; i++)
+                m_shards[i].close();
+        }
+    }
+
+    /**
+     * Wait for all of the threads to exit after a shutdown. If the calling
+     * thread is interrupted this gives up as if the time had run out. The
+     * interrupt status is left set.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit that the timeout is expressed in
+     * @return true if they all exited, false if the timeout expired or the
+     *    thread was interrupted first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        if(m_router != null && !join(m_router, deadline))
+            return false;
+
+        for(int i = 0; i < m_workers.length; i++)
+        {
+            if(!join(m_workers[i], deadline))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the number of worker threads.
+     *
+     * @return The number of workers
+     */
+    public int getWorkerCount()
+    {
+        return m_workers.length;
+    }
+
+    /**
+     * Wait for a thread to exit, up to the given deadline. Gives up early if
+     * the calling thread is interrupted, leaving the interrupt status set.
+     *
+     * @param t The thread to wait for
+     * @param deadline The System.nanoTime() to give up at
+     * @return true if the thread has exited
+     */
+    private static boolean join(Thread t, long deadline)
+    {
+        long nanos;
+
+        while(t.isAlive() && (nanos = deadline - System.nanoTime()) > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.timedJoin(t, nanos);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return !t.isAlive();
+    }
+
+    /**
+     * Takes batches from one queue and gives them to the handler until the
+     * queue is closed and empty.
+     */
+    private class Worker implements Runnable
+    {
+        /** The queue this worker takes from */
+        private final BlockingQueue m_source;
+
+        /**
+         * Create a worker for the given queue.
+         *
+         * @param source The queue to take items from
+         */
+        Worker(BlockingQueue source)
+        {
+            m_source = source;
+        }
+
+        /**
+         * Loop taking batches until the queue is closed and empty or the
+         * dispatcher is stopped.
+         */
+        public void run()
+        {
+            Object[] items = new Object[m_batchSize];
+
+            while(!m_stopped)
+            {
+                int num = m_source.getNext(m_batchSize, items);
+
+                if(num == 0)
+                {
+                    // A purge also gets us here, so only leave when closed
+                    if(m_source.isClosed())
+                        break;
+
+                    continue;
+                }
+
+                try
+                {
+                    m_handler.processItems(items, num);
+                }
+                catch(RuntimeException re)
+                {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, re);
+                }
+
+                for(int i = 0; i < num; i++)
+                    items[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Takes batches from the main queue and hands each item to the shard
+     * for its key. Closes the shards once the main queue is closed and
+     * empty.
+     */
+    private class Router implements Runnable
+    {
+        /**
+         * Loop routing batches until the queue is closed and empty or the
+         * dispatcher is stopped.
+         */
+        public void run()
+        {
+            Object[] items = new Object[m_batchSize];
+            int shards = m_shards.length;
+
+            ArrayList[] buckets = new ArrayList[shards];
+            for(int i = 0; i < shards; i++)
+                buckets[i] = new ArrayList(m_batchSize);
+
+            try
+            {
+                while(!m_stopped)
+                {
+                    int num = m_queue.getNext(m_batchSize, items);
+
+                    if(num == 0)
+                    {
+                        if(m_queue.isClosed())
+                            break;
+
+                        continue;
+                    }
+
+                    for(int i = 0; i < num; i++)
+                    {
+                        // An item without a key is reported and dropped,
+                        // as a handler failure is
+                        try
+                        {
+                            int key = m_keySelector.getKey(items[i]);
+                            int shard = (key & 0x7FFFFFFF) % shards;
+                            buckets[shard].add(items[i]);
+                        }
+                        catch(RuntimeException re)
+                        {
+                            Thread t = Thread.currentThread();
+                            Thread.UncaughtExceptionHandler h =
+                                t.getUncaughtExceptionHandler();
+                            h.uncaughtException(t, re);
+                        }
+
+                        items[i] = null;
+                    }
+
+                    if(!flush(buckets))
+                        break;
+                }
+            }
+            finally
+            {
+                for(int i = 0; i < shards; i++)
+                    m_shards[i].close();
+            }
+        }
+
+        /**
+         * Pass the routed items on to their shards and empty the buckets.
+         *
+         * @param buckets The items for each shard
+         * @return false if the shards have been closed by shutdownNow()
+         */
+        private boolean flush(ArrayList[] buckets)
+        {
+            for(int i = 0; i < buckets.length; i++)
+            {
+                if(buckets[i].isEmpty())
+                    continue;
+
+                try
+                {
+                    m_shards[i].addAll(buckets[i]);
+                }
+                catch(IllegalStateException ise)
+                {
+                    return false;
+                }
+
+                buckets[i].clear();
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Creates daemon platform threads named after the dispatcher.
+     */
+    private static class DefaultThreadFactory implements ThreadFactory
+    {
+        /** The number of threads created so far */
+        private int m_count = 0;
+
+        /**
+         * Create a new daemon thread.
+         *
+         * @param r What the thread is to run
+         * @return The new thread, not yet started
+         */
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "QueueDispatcher-" + m_count++);
+            t.setDaemon(true);
+
+            return t;
+        }
+    }
+}
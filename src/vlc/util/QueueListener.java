@@ -0,0 +1,59 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * Listener for changes in the contents of a {@link BlockingQueue}.
+ * <P>
+ *
+ * The methods are called by whichever thread changed the queue, while it
+ * still holds the lock of the queue. They must return quickly and must not
+ * wait for other threads that use the queue, or they hold up everybody
+ * else. Calling back into the same queue from the listener is allowed.
+ *
+ * @see vlc.util.BlockingQueue#addQueueListener
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public interface QueueListener
+{
+    /**
+     * Items have been added to the queue.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items added
+     */
+    public void itemsAdded(BlockingQueue queue, int num);
+
+    /**
+     * Items have been taken from the queue, or cleared out of it.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items removed
+     */
+    public void itemsRemoved(BlockingQueue queue, int num);
+
+    /**
+     * The queue has been closed.
+     *
+     * @param queue The queue that was closed
+     */
+    public void queueClosed(BlockingQueue queue);
+}
@@ -0,0 +1,361 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exposes a {@link BlockingQueue} as a java.util.concurrent.Flow.Publisher.
+ * <P>
+ *
+ * Items are taken from the queue only when a subscriber has asked for them
+ * with request(n), so a slow subscriber leaves items in the queue rather
+ * than having them pile up in front of it. With several subscribers the
+ * items are shared out between them, each item going to one subscriber,
+ * as with several threads calling getNext().
+ * <P>
+ *
+ * No thread waits on the queue. The publisher listens to the queue, and
+ * whenever items arrive or a subscriber asks for more, a task is run on
+ * the executor to hand over as many items as have been asked for. At most
+ * one such task runs at a time for each subscriber, so each subscriber's
+ * onNext() calls never overlap.
+ * <P>
+ *
+ * Once the queue has been closed and emptied, every subscriber gets
+ * onComplete().
+ *
+ * @see vlc.util.BlockingQueue
+ * @see vlc.util.QueueSubscriber
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class QueuePublisher implements Flow.Publisher, QueueListener
+{
+    /** An empty list of subscriptions */
+    private static final Subscription[] NO_SUBSCRIPTIONS =
+        new Subscription[0];
+
+    /** The queue the items come from */
+    private final BlockingQueue m_queue;
+
+    /** Where the delivery tasks are run */
+    private final Executor m_executor;
+
+    /** The current subscriptions. Replaced, never changed in place */
+    private volatile Subscription[] m_subscriptions = NO_SUBSCRIPTIONS;
+
+    /**
+     * One subscriber's link to the queue. Also the task that delivers items
+     * to it.
+     */
+    private class Subscription implements Flow.Subscription, Runnable
+    {
+        /** Who the items go to */
+        private final Flow.Subscriber m_subscriber;
+
+        /** The number of items asked for and not yet delivered */
+        private final AtomicLong m_demand = new AtomicLong();
+
+        /**
+         * The number of times delivery has been asked for since the task
+         * last looked. Non-zero while the task is scheduled or running.
+         * Starts at one, so that nothing is delivered until subscribe()
+         * runs the task after onSubscribe() has returned.
+         */
+        private final AtomicInteger m_pending = new AtomicInteger(1);
+
+        /** Set once the subscription has ended for whatever reason */
+        private volatile boolean m_done = false;
+
+        /** Error from a bad request(), to be passed on by the task */
+        private volatile Throwable m_error;
+
+        /**
+         * Create a subscription for the given subscriber.
+         *
+         * @param subscriber Who the items go to
+         */
+        Subscription(Flow.Subscriber subscriber)
+        {
+            m_subscriber = subscriber;
+        }
+
+        /**
+         * Ask for more items.
+         *
+         * @param n The number of extra items wanted
+         */
+        public void request(long n)
+        {
+            if(n <= 0)
+            {
+                m_error = new IllegalArgumentException("Bad request: " + n);
+            }
+            else
+            {
+                long old;
+                long sum;
+
+                do
+                {
+                    old = m_demand.get();
+                    sum = old + n;
+                    if(sum < 0)
+                        sum = Long.MAX_VALUE;
+                }
+                while(!m_demand.compareAndSet(old, sum));
+            }
+
+            schedule();
+        }
+
+        /**
+         * Stop receiving items.
+         */
+        public void cancel()
+        {
+            m_done = true;
+            removeSubscription(this);
+        }
+
+        /**
+         * Make sure the delivery task will run again.
+         */
+        void schedule()
+        {
+            if(!m_done && m_pending.getAndIncrement() == 0)
+                m_executor.execute(this);
+        }
+
+        /**
+         * Deliver items for as long as there is demand and items, then
+         * check whether anything changed while doing so.
+         */
+        public void run()
+        {
+            int seen = m_pending.get();
+
+            while(true)
+            {
+                deliver();
+
+                seen = m_pending.addAndGet(-seen);
+                if(seen == 0)
+                    break;
+            }
+        }
+
+        /**
+         * Hand over as many items as have been asked for, and end the
+         * subscription if there is nothing more to come.
+         */
+        private void deliver()
+        {
+            while(!m_done)
+            {
+                if(m_error != null)
+                {
+                    cancel();
+                    m_subscriber.onError(m_error);
+                    return;
+                }
+
+                // Completion needs no demand
+                if(m_queue.isClosed() && !m_queue.hasNext())
+                {
+                    cancel();
+                    m_subscriber.onComplete();
+                    return;
+                }
+
+                if(m_demand.get() == 0)
+                    return;
+
+                Object o = m_queue.poll();
+                if(o == null)
+                    return;
+
+                if(m_demand.get() != Long.MAX_VALUE)
+                    m_demand.decrementAndGet();
+
+                try
+                {
+                    m_subscriber.onNext(o);
+                }
+                catch(RuntimeException re)
+                {
+                    cancel();
+                    m_subscriber.onError(re);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor. Create a publisher for the queue that delivers on the
+     * common fork-join pool.
+     *
+     * @param queue The queue to publish
+     */
+    public QueuePublisher(BlockingQueue queue)
+    {
+        this(queue, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor. Create a publisher for the queue that delivers on the
+     * given executor.
+     *
+     * @param queue The queue to publish
+     * @param executor Runs the tasks that deliver items
+     */
+    public QueuePublisher(BlockingQueue queue, Executor executor)
+    {
+        m_queue = queue;
+        m_executor = executor;
+
+        queue.addQueueListener(this);
+    }
+
+    /**
+     * Add a subscriber. It gets onSubscribe() straight away and then as many
+     * items from the queue as it asks for.
+     *
+     * @param subscriber The subscriber to add
+     * @throws NullPointerException if the subscriber is null
+     */
+    public void subscribe(Flow.Subscriber subscriber)
+    {
+        if(subscriber == null)
+            throw new NullPointerException("Null subscriber");
+
+        Subscription s = new Subscription(subscriber);
+        subscriber.onSubscribe(s);
+
+        synchronized(this)
+        {
+            Subscription[] old = m_subscriptions;
+            Subscription[] list = new Subscription[old.length + 1];
+            System.arraycopy(old, 0, list, 0, old.length);
+            list[old.length] = s;
+            m_subscriptions = list;
+        }
+
+        // Only now may items flow, as onNext() must not overlap
+        // onSubscribe(). This also catches up on anything added, asked for
+        // or closed before we were listed.
+        m_executor.execute(s);
+    }
+
+    /**
+     * Items have been added, so give the subscribers a chance at them.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items added
+     */
+    public void itemsAdded(BlockingQueue queue, int num)
+    {
+        scheduleAll();
+    }
+
+    /**
+     * Ignored. Taking items never gives the subscribers more to do.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items removed
+     */
+    public void itemsRemoved(BlockingQueue queue, int num)
+    {
+    }
+
+    /**
+     * The queue has been closed, so the subscribers may be complete.
+     *
+     * @param queue The queue that was closed
+     */
+    public void queueClosed(BlockingQueue queue)
+    {
+        scheduleAll();
+    }
+
+    /**
+     * Stop listening to the queue and cancel all of the subscriptions. The
+     * subscribers are not told.
+     */
+    public void detach()
+    {
+        m_queue.removeQueueListener(this);
+
+        Subscription[] list = m_subscriptions;
+        for(int i = 0; i < list.length; i++)
+            list[i].cancel();
+    }
+
+    /**
+     * Get the number of current subscribers.
+     *
+     * @return The number of subscribers
+     */
+    public int getSubscriberCount()
+    {
+        return m_subscriptions.length;
+    }
+
+    /**
+     * Schedule a delivery task for every subscriber that has asked for
+     * items.
+     */
+    private void scheduleAll()
+    {
+        Subscription[] list = m_subscriptions;
+        for(int i = 0; i < list.length; i++)
+        {
+            if(list[i].m_demand.get() > 0 || m_queue.isClosed())
+                list[i].schedule();
+        }
+    }
+
+    /**
+     * Remove a subscription from the list.
+     *
+     * @param s The subscription to remove
+     */
+    private synchronized void removeSubscription(Subscription s)
+    {
+        Subscription[] old = m_subscriptions;
+
+        for(int i = 0; i < old.length; i++)
+        {
+            if(old[i] != s)
+                continue;
+
+            Subscription[] list = new Subscription[old.length - 1];
+            System.arraycopy(old, 0, list, 0, i);
+            System.arraycopy(old, i + 1, list, i, old.length - i - 1);
+            m_subscriptions = list;
+            break;
+        }
+    }
+}
@@ -0,0 +1,649 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Statistics gathered for a single {@link BlockingQueue}.
+ * <P>
+ *
+ * Attach an instance to a queue with BlockingQueue.setStatistics(). From
+ * then on it records the depth and high-water mark of the queue, the number
+ * of items added, taken and thrown away, how long
+ * consumers wait in getNext() and how long taken items spent in the queue. The two times are kept as histograms with
+ * a bucket for each power of two nanoseconds.
+ * <P>
+ *
+ * Recording happens under the lock of the queue, while readers can be on
+ * any thread, so the counts are kept in LongAdders rather than under a
+ * lock of their own. Residency is measured by keeping the time each item
+ * was added in a {@link LongQueue} that moves in step with the queue, so
+ * items are not wrapped. Items already in the queue when the statistics
+ * are attached count as added at that moment.
+ * <P>
+ *
+ * No more than MAX_TIMED items are timed at once, so that a queue spilling
+ * to disk does not hold a time for every item in memory. Items added past
+ * that are held as a count in place of their times, and are not included
+ * in the residency times when taken.
+ * <P>
+ *
+ * The statistics can be published through JMX with register(), under the
+ * name vlc.util:type=BlockingQueue,name=&lt;name&gt;.
+ *
+ * @see vlc.util.BlockingQueue
+ * @see vlc.util.QueueStatsMBean
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class QueueStats implements QueueStatsMBean, QueueListener
+{
+    /** The number of buckets in each histogram */
+    private static final int BUCKETS = 64;
+
+    /** The most items whose add time is kept at once */
+    private static final int MAX_TIMED = 1 << 16;
+
+    /** The number of items in the queue */
+    private volatile int m_depth;
+
+    /** The largest number of items that have been in the queue */
+    private volatile int m_highWaterMark;
+
+    /** The number of items added */
+    private final LongAdder m_enqueued = new LongAdder();
+
+    /** The number of items taken */
+    private final LongAdder m_dequeued = new LongAdder();
+
+    /** The number of items thrown away rather than taken */
+    private final LongAdder m_discarded = new LongAdder();
+
+    /** How long consumers waited for an item */
+    private final Histogram m_waits = new Histogram();
+
+    /** How long items spent in the queue */
+    private final Histogram m_residency = new Histogram();
+
+    /**
+     * When each item now in the queue was added relative to m_timeBase,
+     * oldest first. A negative entry -n stands for n untimed items.
+     */
+    private final LongQueue m_addTimes = new LongQueue();
+
+    /** System.nanoTime() that the add times are measured from */
+    private long m_timeBase;
+
+    /** The number of times, rather than counts, in m_addTimes */
+    private int m_timed;
+
+    /** Untimed items at the front, left from a count already taken */
+    private int m_headUntimed;
+
+    /** Untimed items at the back, not yet written to m_addTimes */
+    private int m_tailUntimed;
+
+    /** System.nanoTime() when the counts were last reset */
+    private volatile long m_resetTime = System.nanoTime();
+
+    /** The name the statistics are registered with JMX under, if any */
+    private ObjectName m_name;
+
+    /**
+     * Counts of values in buckets of powers of two.
+     */
+    private static class Histogram
+    {
+        /** Bucket 0 holds 0, bucket i holds 2^(i-1) up to 2^i - 1 */
+        private final LongAdder[] m_buckets = new LongAdder[BUCKETS];
+
+        /** The sum of all of the values */
+        private final LongAdder m_total = new LongAdder();
+
+        /**
+         * Create an empty histogram.
+         */
+        Histogram()
+        {
+            for(int i = 0; i < BUCKETS; i++)
+                m_buckets[i] = new LongAdder();
+        }
+
+        /**
+         * Count a value.
+         *
+         * @param value The value, which may not be negative
+         */
+        void record(long value)
+        {
+            if(value < 0)
+                value = 0;
+
+            m_buckets[getBucket(value)].increment();
+            m_total.add(value);
+        }
+
+        /**
+         * Get a copy of the bucket counts.
+         *
+         * @return The count in each bucket
+         */
+        long[] getCounts()
+        {
+            long[] counts = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++)
+                counts[i] = m_buckets[i].sum();
+
+            return counts;
+        }
+
+        /**
+         * Get the mean of the values counted.
+         *
+         * @return The mean, or 0 if nothing has been counted
+         */
+        double mean()
+        {
+            long count = 0;
+            for(int i = 0; i < BUCKETS; i++)
+                count += m_buckets[i].sum();
+
+            return (count == 0) ? 0 : (double)m_total.sum() / count;
+        }
+
+        /**
+         * Get the upper bound of the bucket a percentile falls in.
+         *
+         * @param fraction The percentile as a fraction between 0 and 1
+         * @return The largest value in that bucket, or 0 if nothing has been
+         *    counted
+         */
+        long percentile(double fraction)
+        {
+            long[] counts = getCounts();
+
+            long count = 0;
+            for(int i = 0; i < BUCKETS; i++)
+                count += counts[i];
+
+            long target = (long)Math.ceil(fraction * count);
+            long seen = 0;
+
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+                if(seen >= target && counts[i] > 0)
+                    return (i == 0) ? 0 : (1L << i) - 1;
+            }
+
+            return 0;
+        }
+
+        /**
+         * Clear all of the counts.
+         */
+        void reset()
+        {
+            for(int i = 0; i < BUCKETS; i++)
+                m_buckets[i].reset();
+
+            m_total.reset();
+        }
+    }
+
+    /**
+     * Constructor. Create an empty set of statistics, ready to be attached
+     * to a queue.
+     */
+    public QueueStats()
+    {
+    }
+
+    /**
+     * Register the statistics with the platform MBean server.
+     *
+     * @param name The name of the queue, used in the JMX object name
+     * @throws IllegalArgumentException if the name cannot be used
+     * @throws IllegalStateException if the registration fails
+     */
+    public synchronized void register(String name)
+    {
+        unregister();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try
+        {
+            ObjectName on =
+                new ObjectName("vlc.util:type=BlockingQueue,name=" +
+                               ObjectName.quote(name));
+
+            server.registerMBean(this, on);
+            m_name = on;
+        }
+        catch(MalformedObjectNameException mone)
+        {
+            throw new IllegalArgumentException("Bad queue name: " + name);
+        }
+        catch(JMException jme)
+        {
+            throw new IllegalStateException("Cannot register " + name +
+                                            ": " + jme.getMessage());
+        }
+    }
+
+    /**
+     * Remove the statistics from the platform MBean server, if they were
+     * registered.
+     */
+    public synchronized void unregister()
+    {
+        if(m_name == null)
+            return;
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(m_name);
+        }
+        catch(JMException jme)
+        {
+            // Already gone
+        }
+
+        m_name = null;
+    }
+
+    /**
+     * Get the histogram bucket a value would be counted in. Bucket 0 holds
+     * 0, and bucket i holds 2^(i-1) up to 2^i - 1.
+     *
+     * @param nanos The time in nanoseconds
+     * @return The index of the bucket
+     */
+    public static int getBucket(long nanos)
+    {
+        return (nanos <= 0) ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Get the time consumers waited at the given percentile.
+     *
+     * @param fraction The percentile as a fraction between 0 and 1
+     * @return The upper bound of the bucket the percentile falls in
+     */
+    public long getWaitPercentile(double fraction)
+    {
+        return m_waits.percentile(fraction);
+    }
+
+    /**
+     * Get the time items spent in the queue at the given percentile.
+     *
+     * @param fraction The percentile as a fraction between 0 and 1
+     * @return The upper bound of the bucket the percentile falls in
+     */
+    public long getResidencyPercentile(double fraction)
+    {
+        return m_residency.percentile(fraction);
+    }
+
+    /**
+     * Get the number of items in the queue.
+     *
+     * @return The current depth
+     */
+    public int getDepth()
+    {
+        return m_depth;
+    }
+
+    /**
+     * Get the largest number of items that have been in the queue at once.
+     *
+     * @return The high-water mark
+     */
+    public int getHighWaterMark()
+    {
+        return m_highWaterMark;
+    }
+
+    /**
+     * Get the number of items added to the queue.
+     *
+     * @return The enqueue count
+     */
+    public long getEnqueueCount()
+    {
+        return m_enqueued.sum();
+    }
+
+    /**
+     * Get the number of items taken from the queue.
+     *
+     * @return The dequeue count
+     */
+    public long getDequeueCount()
+    {
+        return m_dequeued.sum();
+    }
+
+    /**
+     * Get the number of items thrown away by purge(), clear() or an
+     * overflow policy that drops the oldest item.
+     *
+     * @return The discard count
+     */
+    public long getDiscardCount()
+    {
+        return m_discarded.sum();
+    }
+
+    /**
+     * Get the average number of items added per second since the last
+     * reset.
+     *
+     * @return The enqueue rate
+     */
+    public double getEnqueueRate()
+    {
+        return rate(m_enqueued.sum());
+    }
+
+    /**
+     * Get the average number of items taken per second since the last
+     * reset.
+     *
+     * @return The dequeue rate
+     */
+    public double getDequeueRate()
+    {
+        return rate(m_dequeued.sum());
+    }
+
+    /**
+     * Get the mean time consumers waited for an item.
+     *
+     * @return The mean wait time
+     */
+    public double getMeanWaitTime()
+    {
+        return m_waits.mean();
+    }
+
+    /**
+     * Get the median time consumers waited for an item.
+     *
+     * @return The 50th percentile wait time
+     */
+    public long getWaitTime50()
+    {
+        return m_waits.percentile(0.5);
+    }
+
+    /**
+     * Get the time 99% of consumer waits were within.
+     *
+     * @return The 99th percentile wait time
+     */
+    public long getWaitTime99()
+    {
+        return m_waits.percentile(0.99);
+    }
+
+    /**
+     * Get the number of consumer waits in each histogram bucket.
+     *
+     * @return The wait time histogram
+     */
+    public long[] getWaitHistogram()
+    {
+        return m_waits.getCounts();
+    }
+
+    /**
+     * Get the mean time items spent in the queue.
+     *
+     * @return The mean residency time
+     */
+    public double getMeanResidencyTime()
+    {
+        return m_residency.mean();
+    }
+
+    /**
+     * Get the median time items spent in the queue.
+     *
+     * @return The 50th percentile residency time
+     */
+    public long getResidencyTime50()
+    {
+        return m_residency.percentile(0.5);
+    }
+
+    /**
+     * Get the time 99% of items spent in the queue within.
+     *
+     * @return The 99th percentile residency time
+     */
+    public long getResidencyTime99()
+    {
+        return m_residency.percentile(0.99);
+    }
+
+    /**
+     * Get the number of items in each residency time histogram bucket.
+     *
+     * @return The residency time histogram
+     */
+    public long[] getResidencyHistogram()
+    {
+        return m_residency.getCounts();
+    }
+
+    /**
+     * Clear all of the counts and histograms and restart the rates. The
+     * depth is not affected, and the high-water mark drops to it.
+     */
+    public void reset()
+    {
+        m_enqueued.reset();
+        m_dequeued.reset();
+        m_discarded.reset();
+        m_waits.reset();
+        m_residency.reset();
+        m_highWaterMark = m_depth;
+        m_resetTime = System.nanoTime();
+    }
+
+    /**
+     * Record items being added. Called with the queue locked.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items added
+     */
+    public void itemsAdded(BlockingQueue queue, int num)
+    {
+        long now = System.nanoTime() - m_timeBase;
+        for(int i = 0; i < num; i++)
+        {
+            if(m_timed < MAX_TIMED)
+            {
+                if(m_tailUntimed > 0)
+                {
+                    m_addTimes.addLong(-m_tailUntimed);
+                    m_tailUntimed = 0;
+                }
+
+                m_addTimes.addLong(now);
+                m_timed++;
+            }
+            else
+            {
+                m_tailUntimed++;
+            }
+        }
+
+        int depth = m_depth + num;
+        m_depth = depth;
+
+        if(depth > m_highWaterMark)
+            m_highWaterMark = depth;
+
+        m_enqueued.add(num);
+    }
+
+    /**
+     * Record items being taken. Called with the queue locked.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items removed
+     */
+    public void itemsRemoved(BlockingQueue queue, int num)
+    {
+        takeTimes(num, true);
+
+        m_depth = Math.max(0, m_depth - num);
+        m_dequeued.add(num);
+    }
+
+    /**
+     * Ignored.
+     *
+     * @param queue The queue that was closed
+     */
+    public void queueClosed(BlockingQueue queue)
+    {
+    }
+
+    /**
+     * Start recording for a queue. Called by the queue, with it locked.
+     *
+     * @param size The number of items already in the queue
+     */
+    void attach(int size)
+    {
+        clearTimes();
+        m_depth = 0;
+        reset();
+
+        if(size > 0)
+            itemsAdded(null, size);
+    }
+
+    /**
+     * Record items being thrown away from the front of the queue by
+     * purge(), clear() or an overflow policy. They count as discarded
+     * rather than taken, and their time in the queue is not recorded.
+     * Called by the queue, with it locked, in place of itemsRemoved().
+     *
+     * @param num The number of items thrown away
+     */
+    void itemsDiscarded(int num)
+    {
+        if(num >= m_depth)
+            clearTimes();
+        else
+            takeTimes(num, false);
+
+        m_depth = Math.max(0, m_depth - num);
+        m_discarded.add(num);
+    }
+
+    /**
+     * Record how long a consumer waited for an item. Called by the queue,
+     * with it locked.
+     *
+     * @param nanos The time spent waiting
+     */
+    void consumerWaited(long nanos)
+    {
+        m_waits.record(nanos);
+    }
+
+    /**
+     * Take the add times of items leaving the front of the queue.
+     *
+     * @param num The number of items that have left
+     * @param record true to record their time in the queue
+     */
+    private void takeTimes(int num, boolean record)
+    {
+        long now = System.nanoTime() - m_timeBase;
+        for(int i = 0; i < num; i++)
+        {
+            if(m_headUntimed > 0)
+            {
+                m_headUntimed--;
+            }
+            else if(m_addTimes.hasNext())
+            {
+                long added = m_addTimes.getNextLong();
+                if(added < 0)
+                {
+                    m_headUntimed = (int)-added - 1;
+                }
+                else
+                {
+                    if(record)
+                        m_residency.record(now - added);
+
+                    m_timed--;
+                }
+            }
+            else if(m_tailUntimed > 0)
+            {
+                m_tailUntimed--;
+            }
+        }
+    }
+
+    /**
+     * Forget the add times of every item in the queue.
+     */
+    private void clearTimes()
+    {
+        m_addTimes.clear();
+        m_timeBase = System.nanoTime();
+        m_timed = 0;
+        m_headUntimed = 0;
+        m_tailUntimed = 0;
+    }
+
+    /**
+     * Turn a count into a rate per second since the last reset.
+     *
+     * @param count The count
+     * @return The rate per second
+     */
+    private double rate(long count)
+    {
+        long elapsed = System.nanoTime() - m_resetTime;
+        if(elapsed <= 0)
+            return 0;
+
+        return count * 1e9 / elapsed;
+    }
+}
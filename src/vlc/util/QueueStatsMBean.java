@@ -0,0 +1,147 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * JMX management interface of {@link QueueStats}.
+ * <P>
+ *
+ * Times are in nanoseconds. Percentiles are the upper bound of the
+ * histogram bucket they fall in, so they may be up to twice the real
+ * value.
+ *
+ * @see vlc.util.QueueStats
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public interface QueueStatsMBean
+{
+    /**
+     * Get the number of items in the queue.
+     *
+     * @return The current depth
+     */
+    public int getDepth();
+
+    /**
+     * Get the largest number of items that have been in the queue at once.
+     *
+     * @return The high-water mark
+     */
+    public int getHighWaterMark();
+
+    /**
+     * Get the number of items added to the queue.
+     *
+     * @return The enqueue count
+     */
+    public long getEnqueueCount();
+
+    /**
+     * Get the number of items taken from the queue.
+     *
+     * @return The dequeue count
+     */
+    public long getDequeueCount();
+
+    /**
+     * Get the number of items thrown away by purge(), clear() or an
+     * overflow policy that drops the oldest item.
+     *
+     * @return The discard count
+     */
+    public long getDiscardCount();
+
+    /**
+     * Get the average number of items added per second.
+     *
+     * @return The enqueue rate
+     */
+    public double getEnqueueRate();
+
+    /**
+     * Get the average number of items taken per second.
+     *
+     * @return The dequeue rate
+     */
+    public double getDequeueRate();
+
+    /**
+     * Get the mean time consumers waited for an item.
+     *
+     * @return The mean wait time
+     */
+    public double getMeanWaitTime();
+
+    /**
+     * Get the median time consumers waited for an item.
+     *
+     * @return The 50th percentile wait time
+     */
+    public long getWaitTime50();
+
+    /**
+     * Get the time 99% of consumer waits were within.
+     *
+     * @return The 99th percentile wait time
+     */
+    public long getWaitTime99();
+
+    /**
+     * Get the number of consumer waits in each histogram bucket.
+     *
+     * @return The wait time histogram
+     */
+    public long[] getWaitHistogram();
+
+    /**
+     * Get the mean time items spent in the queue.
+     *
+     * @return The mean residency time
+     */
+    public double getMeanResidencyTime();
+
+    /**
+     * Get the median time items spent in the queue.
+     *
+     * @return The 50th percentile residency time
+     */
+    public long getResidencyTime50();
+
+    /**
+     * Get the time 99% of items spent in the queue within.
+     *
+     * @return The 99th percentile residency time
+     */
+    public long getResidencyTime99();
+
+    /**
+     * Get the number of items in each residency time histogram bucket.
+     *
+     * @return The residency time histogram
+     */
+    public long[] getResidencyHistogram();
+
+    /**
+     * Clear all of the counts and histograms and restart the rates. The
+     * depth is not affected.
+     */
+    public void reset();
+}
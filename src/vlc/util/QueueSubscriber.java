@@ -0,0 +1,322 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A java.util.concurrent.Flow.Subscriber that feeds the items it receives
+ * into a {@link BlockingQueue}.
+ * <P>
+ *
+ * The subscriber only asks for as many items as there is room for in a
+ * buffer of a given size, counting both the items already in the queue and
+ * those asked for but not yet received. As consumers take items from the
+ * queue, more are asked for. For a bounded queue the buffer defaults to the
+ * capacity of the queue, so as long as nothing else adds to the queue,
+ * onNext() never has to wait for room and no thread is held up.
+ * <P>
+ *
+ * Requests are made in chunks of at least a quarter of the buffer, rather
+ * than one item at a time. The queue tells the subscriber about items
+ * being taken while it is locked, and a publisher may deliver from inside
+ * request(), so those requests are made by a task on an executor rather
+ * than by the consumer thread.
+ * <P>
+ *
+ * When the publisher completes or fails, the queue is closed, so consumers
+ * finish once they have taken what is left. The failure can be fetched
+ * with getError(). If the queue is closed from elsewhere first, the
+ * subscription is cancelled.
+ *
+ * @see vlc.util.BlockingQueue
+ * @see vlc.util.QueuePublisher
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class QueueSubscriber implements Flow.Subscriber, QueueListener
+{
+    /** The buffer size used with an unbounded queue */
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    /** The queue the items go to */
+    private final BlockingQueue m_queue;
+
+    /** The most items to have queued and asked for at once */
+    private final int m_bufferSize;
+
+    /** The smallest number of items worth asking for */
+    private final int m_threshold;
+
+    /** The subscription items come from. Null until subscribed */
+    private volatile Flow.Subscription m_subscription;
+
+    /** The number of items asked for and not yet received */
+    private final AtomicLong m_outstanding = new AtomicLong();
+
+    /** Why the publisher failed, if it did */
+    private volatile Throwable m_error;
+
+    /** Where requests for more items are made from */
+    private final Executor m_executor;
+
+    /** The task that asks for more items */
+    private final Runnable m_replenisher = new Replenisher();
+
+    /**
+     * The number of times more items have been wanted since the task last
+     * looked. Non-zero while the task is scheduled or running.
+     */
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    /**
+     * Asks for more items on the executor, away from the queue lock.
+     */
+    private class Replenisher implements Runnable
+    {
+        /**
+         * Ask for more items, then check whether more were taken while
+         * doing so.
+         */
+        public void run()
+        {
+            int seen = m_pending.get();
+
+            while(true)
+            {
+                replenish();
+
+                seen = m_pending.addAndGet(-seen);
+                if(seen == 0)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Constructor. Create a subscriber that fills the queue up to its
+     * capacity, or the default buffer size if it is unbounded.
+     *
+     * @param queue The queue to add the items to
+     */
+    public QueueSubscriber(BlockingQueue queue)
+    {
+        this(queue,
+             queue.getCapacity() == Integer.MAX_VALUE ?
+                 DEFAULT_BUFFER_SIZE : queue.getCapacity());
+    }
+
+    /**
+     * Constructor. Create a subscriber that keeps no more than the given
+     * number of items queued and asked for, asking for more on the common
+     * fork-join pool.
+     *
+     * @param queue The queue to add the items to
+     * @param bufferSize The most items to have queued and asked for
+     * @throws IllegalArgumentException if the buffer size is not positive
+     */
+    public QueueSubscriber(BlockingQueue queue, int bufferSize)
+    {
+        this(queue, bufferSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor. Create a subscriber that keeps no more than the given
+     * number of items queued and asked for, asking for more on the given
+     * executor.
+     *
+     * @param queue The queue to add the items to
+     * @param bufferSize The most items to have queued and asked for
+     * @param executor Runs the tasks that ask for more items
+     * @throws IllegalArgumentException if the buffer size is not positive
+     */
+    public QueueSubscriber(BlockingQueue queue,
+                           int bufferSize,
+                           Executor executor)
+    {
+        if(bufferSize <= 0)
+            throw new IllegalArgumentException("Illegal buffer size: " +
+                                               bufferSize);
+
+        m_queue = queue;
+        m_bufferSize = bufferSize;
+        m_threshold = (bufferSize + 3) / 4;
+        m_executor = executor;
+    }
+
+    /**
+     * Start receiving items, asking for enough to fill the buffer. A second
+     * subscription is cancelled straight away.
+     *
+     * @param subscription Where the items come from
+     */
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        if(m_subscription != null)
+        {
+            subscription.cancel();
+            return;
+        }
+
+        m_subscription = subscription;
+        m_queue.addQueueListener(this);
+
+        replenish();
+    }
+
+    /**
+     * Add an item to the queue.
+     *
+     * @param item The item received
+     */
+    public void onNext(Object item)
+    {
+        try
+        {
+            m_queue.add(item);
+        }
+        catch(IllegalStateException ise)
+        {
+            // Closed underneath us, queueClosed() has cancelled
+            return;
+        }
+
+        // Only count it once it is in the queue, so that the buffer never
+        // looks to have more room than it does. A consumer may have taken
+        // it in between and found no room then, so look again.
+        m_outstanding.decrementAndGet();
+        scheduleReplenish();
+    }
+
+    /**
+     * The publisher has failed. Close the queue.
+     *
+     * @param t What went wrong
+     */
+    public void onError(Throwable t)
+    {
+        m_error = t;
+        m_queue.removeQueueListener(this);
+        m_queue.close();
+    }
+
+    /**
+     * The publisher has finished. Close the queue.
+     */
+    public void onComplete()
+    {
+        m_queue.removeQueueListener(this);
+        m_queue.close();
+    }
+
+    /**
+     * Ignored. Adding items never makes more room.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items added
+     */
+    public void itemsAdded(BlockingQueue queue, int num)
+    {
+    }
+
+    /**
+     * Items have been taken from the queue, so ask for more if there is now
+     * enough room. Called with the queue locked, so the request itself is
+     * left to the executor.
+     *
+     * @param queue The queue that changed
+     * @param num The number of items removed
+     */
+    public void itemsRemoved(BlockingQueue queue, int num)
+    {
+        scheduleReplenish();
+    }
+
+    /**
+     * The queue has been closed, so no more items are wanted.
+     *
+     * @param queue The queue that was closed
+     */
+    public void queueClosed(BlockingQueue queue)
+    {
+        m_queue.removeQueueListener(this);
+
+        Flow.Subscription s = m_subscription;
+        if(s != null)
+            s.cancel();
+    }
+
+    /**
+     * Get the error the publisher failed with.
+     *
+     * @return The error, or null if it has not failed
+     */
+    public Throwable getError()
+    {
+        return m_error;
+    }
+
+    /**
+     * Have the executor ask for more items if there is enough room for
+     * them. Safe to call with the queue locked.
+     */
+    private void scheduleReplenish()
+    {
+        if(m_subscription == null)
+            return;
+
+        long free = m_bufferSize - m_queue.size() - m_outstanding.get();
+        if(free < m_threshold)
+            return;
+
+        if(m_pending.getAndIncrement() == 0)
+            m_executor.execute(m_replenisher);
+    }
+
+    /**
+     * Ask for enough items to fill the buffer, if that is worth doing. Must
+     * not be called with the queue locked.
+     */
+    private void replenish()
+    {
+        Flow.Subscription s = m_subscription;
+        if(s == null)
+            return;
+
+        while(true)
+        {
+            long out = m_outstanding.get();
+            long free = m_bufferSize - m_queue.size() - out;
+
+            if(free < m_threshold)
+                return;
+
+            if(m_outstanding.compareAndSet(out, out + free))
+            {
+                s.request(free);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+
+/**
+ * FIFO overflow storage for a {@link Queue}, kept in temporary files.
+ * <P>
+ *
+ * Items are serialized and appended to a sequence of files through a
+ * buffered FileChannel, and read back through a second channel in the
+ * same order. Each file holds up to a fixed number of bytes. A file is
+ * deleted as soon as it has been read to the end, and all of the files go
+ * as soon as the store is empty, so disk use follows the backlog. Files
+ * left behind by a process that dies are not cleaned up.
+ * <P>
+ *
+ * This class is not thread safe. It is used under whatever locking the
+ * owning queue has.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @author  Justin Couch
+ * @version 1.0
+ */
+class SpillStore
+{
+    /** The size of a file before a new one is started */
+    private static final long FILE_SIZE = 64 * 1024 * 1024;
+
+    /** The size of the read and write buffers */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Size of the length field in front of each record */
+    private static final int HEADER_SIZE = 4;
+
+    /** The directory to create the files in */
+    private final File m_directory;
+
+    /** Files not yet read to the end, oldest first */
+    private LinkedList m_files;
+
+    /** Channel to the newest file */
+    private FileChannel m_writeChannel;
+
+    /** Channel to the oldest file */
+    private FileChannel m_readChannel;
+
+    /** Records waiting to be written to m_writeChannel */
+    private ByteBuffer m_writeBuffer;
+
+    /** Data read from m_readChannel but not yet used */
+    private ByteBuffer m_readBuffer;
+
+    /** Buffer reused to serialize items */
+    private ByteArrayOutputStream m_bytes;
+
+    /** The number of items in the store */
+    private int m_count;
+
+    /**
+     * Create an empty store that keeps its files in the given directory.
+     *
+     * @param dir The directory for the temporary files
+     */
+    SpillStore(File dir)
+    {
+        m_directory = dir;
+        m_files = new LinkedList();
+        m_writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        m_readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        m_readBuffer.flip();
+        m_bytes = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Append an item to the end of the store.
+     *
+     * @param o The item to add. Must be serializable
+     * @throws IOException The item could not be serialized or written
+     */
+    void write(Object o) throws IOException
+    {
+        m_bytes.reset();
+        ObjectOutputStream out = new ObjectOutputStream(m_bytes);
+        out.writeObject(o);
+        out.close();
+
+        int len = m_bytes.size();
+
+        if(m_writeChannel == null ||
+           m_writeChannel.position() + m_writeBuffer.position() >= FILE_SIZE)
+            nextFile();
+
+        if(m_writeBuffer.remaining() < HEADER_SIZE + len)
+            flush();
+
+        if(m_writeBuffer.remaining() < HEADER_SIZE + len)
+        {
+            ByteBuffer big = ByteBuffer.allocate(HEADER_SIZE + len);
+            big.putInt(len);
+            big.put(m_bytes.toByteArray());
+            big.flip();
+
+            while(big.hasRemaining())
+                m_writeChannel.write(big);
+        }
+        else
+        {
+            m_writeBuffer.putInt(len);
+            m_writeBuffer.put(m_bytes.toByteArray());
+        }
+
+        m_count++;
+    }
+
+    /**
+     * Remove the item at the front of the store.
+     *
+     * @return The item, or null if the store is empty
+     * @throws IOException The item could not be read or deserialized
+     */
+    Object read() throws IOException
+    {
+        if(m_count == 0)
+            return null;
+
+        if(m_readChannel == null)
+            m_readChannel = openRead((File)m_files.getFirst());
+
+        // The record may still be sitting in the write buffer
+        if(m_files.size() == 1)
+            flush();
+
+        if(!fill(HEADER_SIZE))
+        {
+            // Read this file to the end, move on to the next one
+            m_readChannel.close();
+            ((File)m_files.removeFirst()).delete();
+            m_readChannel = openRead((File)m_files.getFirst());
+            m_readBuffer.clear();
+            m_readBuffer.flip();
+
+            if(m_files.size() == 1)
+                flush();
+
+            fill(HEADER_SIZE);
+        }
+
+        int len = m_readBuffer.getInt();
+        byte[] data = new byte[len];
+
+        int have = Math.min(len, m_readBuffer.remaining());
+        m_readBuffer.get(data, 0, have);
+
+        if(have < len)
+        {
+            ByteBuffer rest = ByteBuffer.wrap(data, have, len - have);
+            while(rest.hasRemaining())
+            {
+                if(m_readChannel.read(rest) < 0)
+                    throw new IOException("Spill file truncated");
+            }
+        }
+
+        m_count--;
+
+        if(m_count == 0)
+            clear();
+
+        ObjectInputStream in =
+            new ObjectInputStream(new ByteArrayInputStream(data));
+
+        try
+        {
+            return in.readObject();
+        }
+        catch(ClassNotFoundException cnfe)
+        {
+            throw new IOException("Unknown class in spill file", cnfe);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the number of items in the store.
+     *
+     * @return The number of items
+     */
+    int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * Throw away everything in the store and delete the files.
+     *
+     * @throws IOException The files could not be closed
+     */
+    void clear() throws IOException
+    {
+        if(m_readChannel != null)
+            m_readChannel.close();
+
+        if(m_writeChannel != null)
+            m_writeChannel.close();
+
+        while(!m_files.isEmpty())
+            ((File)m_files.removeFirst()).delete();
+
+        m_readChannel = null;
+        m_writeChannel = null;
+        m_writeBuffer.clear();
+        m_readBuffer.clear();
+        m_readBuffer.flip();
+        m_count = 0;
+    }
+
+    /**
+     * Write out any buffered records.
+     *
+     * @throws IOException The data could not be written
+     */
+    private void flush() throws IOException
+    {
+        m_writeBuffer.flip();
+
+        while(m_writeBuffer.hasRemaining())
+            m_writeChannel.write(m_writeBuffer);
+
+        m_writeBuffer.clear();
+    }
+
+    /**
+     * Close off the current file and start writing to a new one.
+     *
+     * @throws IOException The file could not be created
+     */
+    private void nextFile() throws IOException
+    {
+        if(m_writeChannel != null)
+        {
+            flush();
+
+            // The reader has its own channel to the file
+            m_writeChannel.close();
+        }
+
+        // No deleteOnExit(), as the JVM would hold on to every name until
+        // shutdown. Files are deleted once read or cleared instead.
+        File f = File.createTempFile("spill", ".dat", m_directory);
+
+        m_writeChannel = FileChannel.open(f.toPath(),
+                                          StandardOpenOption.WRITE);
+        m_files.add(f);
+    }
+
+    /**
+     * Make sure the read buffer holds at least the given number of bytes.
+     *
+     * @param num The number of bytes needed
+     * @return false if the end of the file came first
+     * @throws IOException The file could not be read
+     */
+    private boolean fill(int num) throws IOException
+    {
+        if(m_readBuffer.remaining() >= num)
+            return true;
+
+        m_readBuffer.compact();
+
+        while(m_readBuffer.position() < num)
+        {
+            if(m_readChannel.read(m_readBuffer) < 0)
+                break;
+        }
+
+        m_readBuffer.flip();
+
+        return (m_readBuffer.remaining() >= num);
+    }
+
+    /**
+     * Open a file for reading.
+     *
+     * @param f The file to open
+     * @return A channel positioned at the start of the file
+     * @throws IOException The file could not be opened
+     */
+    private static FileChannel openRead(File f) throws IOException
+    {
+        return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    }
+}
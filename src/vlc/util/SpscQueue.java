@@ -0,0 +1,439 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 'First In First Out' (FIFO) queue for exactly one producer thread and
+ * one consumer thread.
+ * <P>
+ *
+ * Offers the same methods as the {@link Queue}. Because only one thread
+ * ever adds and only one thread ever removes, no locks or compare-and-set
+ * are needed. Items are held in a fixed size circular array. The producer
+ * publishes a new item with an ordered store of the tail position and the
+ * consumer frees a slot with an ordered store of the head position. Each
+ * side keeps its own cached copy of the other side's position and only
+ * reads the shared one when the cached copy says the queue is full or
+ * empty.
+ * <P>
+ *
+ * Using the queue from more than one producer thread or more than one
+ * consumer thread at a time will corrupt it.
+ * <P>
+ *
+ * A non-blocking queue behaves like the Queue: getNext() returns null when
+ * there is nothing to take. A blocking queue makes getNext() wait for an
+ * item instead. Either way add() waits when the array is full. Waiting
+ * spins briefly, then yields, then parks the thread until the other side
+ * wakes it. A blocking queue pays for a full fence on every add and
+ * remove so that the other side can reliably see a parked thread; a
+ * non-blocking queue uses cheaper ordered stores and a producer waiting
+ * on it only parks for short periods at a time.
+ * <P>
+ *
+ * A waiting consumer leaves getNext() with null if its thread is
+ * interrupted, with the interrupt status left set. A waiting producer
+ * carries on through interrupts, as it has nowhere to put the item, and
+ * sets the status again once it has added it. Either side can be released
+ * by close(), which may be called from any thread.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.Queue
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public class SpscQueue
+{
+    /** The default number of slots in the queue */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /** Number of busy spins before starting to yield */
+    private static final int SPIN_TRIES = 100;
+
+    /** Number of yields before parking the thread */
+    private static final int YIELD_TRIES = 10;
+
+    /** How long a producer on a non-blocking queue parks for at a time */
+    private static final long PARK_NANOS = 50000;
+
+    /** The slots holding the queued items */
+    private final Object[] m_elements;
+
+    /** Mask to convert a position to a slot index */
+    private final int m_mask;
+
+    /** true if getNext() should wait for an item */
+    private final boolean m_blocking;
+
+    /** The position of the next item to take. Written by the consumer */
+    private final AtomicLong m_head;
+
+    /** The position of the next free slot. Written by the producer */
+    private final AtomicLong m_tail;
+
+    /** The producer's last view of m_head */
+    private long m_headCache;
+
+    /** The consumer's last view of m_tail */
+    private long m_tailCache;
+
+    /** The consumer thread if it is parked waiting for an item */
+    private volatile Thread m_waitingConsumer;
+
+    /** The producer thread if it is parked waiting for room */
+    private volatile Thread m_waitingProducer;
+
+    /** Set once the queue has been closed */
+    private volatile boolean m_closed;
+
+    /**
+     * Constructor. Create a non-blocking queue with the default capacity.
+     */
+    public SpscQueue()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Constructor. Create a queue that can hold at least the given number of
+     * items. The capacity is rounded up to the next power of two.
+     *
+     * @param capacity The number of items that the queue can hold
+     * @param blocking true if getNext() should wait for an item rather than
+     *    return null when the queue is empty
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public SpscQueue(int capacity, boolean blocking)
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " +
+                                               capacity);
+
+        int size = 1;
+        while(size < capacity)
+            size <<= 1;
+
+        m_elements = new Object[size];
+        m_mask = size - 1;
+        m_blocking = blocking;
+
+        m_head = new AtomicLong();
+        m_tail = new AtomicLong();
+    }
+
+    /**
+     * Add an element to the end of the queue, waiting for room if the queue
+     * is full. Must only be called from the producer thread.
+     *
+     * @param o Element to add.
+     * @throws NullPointerException if the element is null
+     * @throws IllegalStateException if the queue is closed, before or
+     *    while waiting for room
+     */
+    public void add(Object o)
+    {
+        int tries = 0;
+        boolean interrupted = false;
+
+        try
+        {
+            while(!offer(o))
+            {
+                if(m_closed)
+                    throw new IllegalStateException("Queue is closed");
+
+                // A pending interrupt would stop park() from parking
+                if(Thread.interrupted())
+                    interrupted = true;
+
+                if(tries < SPIN_TRIES + YIELD_TRIES)
+                {
+                    idle(tries++);
+                }
+                else if(!m_blocking)
+                {
+                    // Without the full fences of blocking mode the consumer
+                    // may not see that we are waiting, so never park
+                    // indefinitely.
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                else
+                {
+                    m_waitingProducer = Thread.currentThread();
+
+                    boolean added = offer(o);
+                    if(!added && !m_closed)
+                        LockSupport.park(this);
+
+                    m_waitingProducer = null;
+
+                    if(added)
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add an element to the end of the queue if there is room for it. Must
+     * only be called from the producer thread.
+     *
+     * @param o Element to add.
+     * @return true if the element was added, false if the queue is full
+     *    or closed
+     * @throws NullPointerException if the element is null
+     */
+    public boolean offer(Object o)
+    {
+        if(o == null)
+            throw new NullPointerException("Null items are not allowed");
+
+        if(m_closed)
+            return false;
+
+        long tail = m_tail.get();
+
+        if(tail - m_headCache > m_mask)
+        {
+            m_headCache = m_head.get();
+            if(tail - m_headCache > m_mask)
+                return false;
+        }
+
+        m_elements[(int)tail & m_mask] = o;
+
+        // Threads only park in blocking mode. The check for a parked
+        // thread must not move above the store publishing the item, which
+        // needs a full volatile store. Otherwise an ordered store will do.
+        if(m_blocking)
+        {
+            m_tail.set(tail + 1);
+
+            Thread waiter = m_waitingConsumer;
+            if(waiter != null)
+                LockSupport.unpark(waiter);
+        }
+        else
+        {
+            m_tail.lazySet(tail + 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the next element from the front and remove it from the queue.
+     * A blocking queue waits until there is an element to return, the
+     * queue is closed or the thread is interrupted. Must only be called
+     * from the consumer thread.
+     *
+     * @return element at the front of the queue, or null if empty and the
+     *    queue is not blocking, is closed or the thread was interrupted.
+     *    The interrupt status is left set
+     */
+    public Object getNext()
+    {
+        Object o = poll();
+
+        if(o != null || !m_blocking)
+            return o;
+
+        Thread me = Thread.currentThread();
+        int tries = 0;
+
+        while((o = poll()) == null)
+        {
+            // Take anything added just before the close
+            if(m_closed)
+                return poll();
+
+            if(me.isInterrupted())
+                return null;
+
+            if(tries < SPIN_TRIES + YIELD_TRIES)
+            {
+                idle(tries++);
+            }
+            else
+            {
+                m_waitingConsumer = me;
+                o = poll();
+                if(o == null && !m_closed && !me.isInterrupted())
+                    LockSupport.park(this);
+
+                m_waitingConsumer = null;
+
+                if(o != null)
+                    break;
+            }
+        }
+
+        return o;
+    }
+
+    /**
+     * Return the next element from the front and remove it from the queue,
+     * without waiting. Must only be called from the consumer thread.
+     *
+     * @return element at the front of the queue, or null if empty.
+     */
+    public Object poll()
+    {
+        long head = m_head.get();
+
+        if(head >= m_tailCache)
+        {
+            m_tailCache = m_tail.get();
+            if(head >= m_tailCache)
+                return null;
+        }
+
+        int index = (int)head & m_mask;
+        Object o = m_elements[index];
+        m_elements[index] = null;
+
+        // See offer() for why the store differs between the modes.
+        if(m_blocking)
+        {
+            m_head.set(head + 1);
+
+            Thread waiter = m_waitingProducer;
+            if(waiter != null)
+                LockSupport.unpark(waiter);
+        }
+        else
+        {
+            m_head.lazySet(head + 1);
+        }
+
+        return o;
+    }
+
+    /**
+     * Return the next element from the front of the queue. Must only be
+     * called from the consumer thread.
+     *
+     * @return element at the from of the queue, or null if empty.
+     */
+    public Object peekNext()
+    {
+        long head = m_head.get();
+
+        if(head >= m_tailCache)
+        {
+            m_tailCache = m_tail.get();
+            if(head >= m_tailCache)
+                return null;
+        }
+
+        return m_elements[(int)head & m_mask];
+    }
+
+    /**
+     * Check if queue has more elements.
+     *
+     * @return true if queue has more elements.
+     */
+    public boolean hasNext()
+    {
+        return (m_tail.get() > m_head.get());
+    }
+
+    /**
+     * Return the number of elements in the queue. This is only a snapshot
+     * while the other thread is working on the queue.
+     *
+     * @return size of queue.
+     */
+    public int size()
+    {
+        long head = m_head.get();
+        long size = m_tail.get() - head;
+
+        return (size < 0) ? 0 : (int)size;
+    }
+
+    /**
+     * Close the queue. Any further attempt to add items fails, and a
+     * producer waiting for room is released with an IllegalStateException.
+     * Items already in the queue can still be taken. Once it is empty,
+     * getNext() returns null straight away, and a consumer that is waiting
+     * now is woken to do so. May be called from any thread.
+     */
+    public void close()
+    {
+        m_closed = true;
+
+        // Both waiters check m_closed after making themselves visible, so
+        // any thread about to park is either seen here or sees the close
+        Thread waiter = m_waitingConsumer;
+        if(waiter != null)
+            LockSupport.unpark(waiter);
+
+        waiter = m_waitingProducer;
+        if(waiter != null)
+            LockSupport.unpark(waiter);
+    }
+
+    /**
+     * Check to see if the queue has been closed.
+     *
+     * @return true if close() has been called
+     */
+    public boolean isClosed()
+    {
+        return m_closed;
+    }
+
+    /**
+     * Remove all elements in the queue. Must only be called from the
+     * consumer thread.
+     */
+    public void clear()
+    {
+        while(poll() != null)
+            ;
+    }
+
+    /**
+     * Back off while waiting for the other thread: spin first, then yield.
+     *
+     * @param tries The number of times the caller has already backed off
+     */
+    private void idle(int tries)
+    {
+        if(tries < SPIN_TRIES)
+            Thread.onSpinWait();
+        else
+            Thread.yield();
+    }
+}
@@ -0,0 +1,153 @@
+/*****************************************************************************
+ *                The Virtual Light Company Copyright (c) 1999
+ *                               Java Source
+ *
+ * This code is licensed under the GNU Library GPL. Please read
+ * license.txt
+ * for the full details. A copy of the LGPL may be found at
+ *
+ * http://www.gnu.org/copyleft/lgpl.html
+ *
+ * Project:    VLC Common core code library
+ *
+ * Version History
+ * Date        TR/IWOR  Version  Programmer
+ * ----------  -------  -------  ------------------------------------------
+ *
+ ****************************************************************************/
+
+package vlc.util;
+
+/**
+ * Decides what a consumer does while it waits for an item to turn up in an
+ * empty queue.
+ * <P>
+ *
+ * Each time a consumer finds the queue empty it asks the strategy whether
+ * to look again or to go to sleep. A strategy that always says look again
+ * gives the lowest latency at the cost of a busy CPU, one that says sleep
+ * straight away costs nothing while idle but pays for a thread wake-up on
+ * every item. The standard strategies are:
+ * <UL>
+ * <LI>{@link #BLOCKING}: sleep straight away. This is the default.</LI>
+ * <LI>{@link #BUSY_SPIN}: never sleep, spin on the CPU.</LI>
+ * <LI>{@link #SPIN_YIELD}: spin for a while, then keep yielding the CPU to
+ *     other threads, but never sleep.</LI>
+ * <LI>{@link #SPIN_THEN_PARK}: spin, then yield, then sleep.</LI>
+ * </UL>
+ * Other spin and yield counts can be had from {@link #spinYield(int)} and
+ * {@link #spinThenPark(int, int)}. Strategies hold no per-consumer state, so
+ * one instance can be shared between any number of queues.
+ * <P>
+ *
+ * This softare is released under the
+ * <A HREF="http://www.gnu.org/copyleft/lgpl.html">GNU LGPL</A>
+ * <P>
+ *
+ * @see vlc.util.BlockingQueue#setWaitStrategy(WaitStrategy)
+ * @version 1.0
+ *
+ * @author $Author: justin $
+ */
+public abstract class WaitStrategy
+{
+    /** Go to sleep as soon as the queue is found empty */
+    public static final WaitStrategy BLOCKING = new Backoff(0, 0, true);
+
+    /** Spin on the CPU for as long as the queue is empty */
+    public static final WaitStrategy BUSY_SPIN =
+        new Backoff(Integer.MAX_VALUE, 0, false);
+
+    /** Spin for a while, then yield for as long as the queue is empty */
+    public static final WaitStrategy SPIN_YIELD = spinYield(100);
+
+    /** Spin for a while, yield for a while, then go to sleep */
+    public static final WaitStrategy SPIN_THEN_PARK = spinThenPark(100, 10);
+
+    /**
+     * Called each time a consumer finds the queue empty. Any spinning or
+     * yielding is done inside this method.
+     *
+     * @param tries The number of times this method has already been called
+     *    during the current wait
+     * @return true if the consumer should look at the queue again, false if
+     *    it should go to sleep until an item is added
+     */
+    public abstract boolean idle(int tries);
+
+    /**
+     * Create a strategy that spins the given number of times, then yields
+     * for as long as the queue is empty.
+     *
+     * @param spins The number of busy spins before yielding
+     * @return A strategy that never sleeps
+     */
+    public static WaitStrategy spinYield(int spins)
+    {
+        return new Backoff(spins, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Create a strategy that spins and yields the given number of times,
+     * then goes to sleep.
+     *
+     * @param spins The number of busy spins before yielding
+     * @param yields The number of yields before sleeping
+     * @return A strategy that eventually sleeps
+     */
+    public static WaitStrategy spinThenPark(int spins, int yields)
+    {
+        return new Backoff(spins, yields, true);
+    }
+
+    /**
+     * Strategy that spins, then yields, then optionally sleeps.
+     */
+    private static class Backoff extends WaitStrategy
+    {
+        /** Number of busy spins before yielding */
+        private final int spins;
+
+        /** Number of spins and yields before sleeping */
+        private final int limit;
+
+        /** true if the consumer sleeps once it has spun and yielded */
+        private final boolean sleep;
+
+        /**
+         * Create a strategy with the given counts.
+         *
+         * @param spins The number of busy spins before yielding
+         * @param yields The number of yields before sleeping
+         * @param sleep true if the consumer goes to sleep afterwards
+         */
+        Backoff(int spins, int yields, boolean sleep)
+        {
+            if(spins < 0 || yields < 0)
+                throw new IllegalArgumentException("Negative count");
+
+            this.spins = spins;
+            this.limit = (yields > Integer.MAX_VALUE - spins) ?
+                         Integer.MAX_VALUE : spins + yields;
+            this.sleep = sleep;
+        }
+
+        /**
+         * Spin or yield according to how long we have been waiting.
+         *
+         * @param tries The number of times already called in this wait
+         * @return true to look at the queue again, false to sleep
+         */
+        public boolean idle(int tries)
+        {
+            if(tries < spins)
+                Thread.onSpinWait();
+            else if(tries < limit || !sleep)
+                Thread.yield();
+            else
+                return false;
+
+            return true;
+        }
+    }
+}